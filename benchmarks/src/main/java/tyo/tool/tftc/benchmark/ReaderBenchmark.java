@@ -0,0 +1,102 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tyo.tool.tftc.TAsyncLogger;
+import tyo.tool.tftc.TPortManager;
+import tyo.tool.tftc.TPortReader;
+import tyo.tool.tftc.TScriptCompiler;
+
+/**
+ * RX line assembly in TPortReader over a synthetic "show running-config"
+ * dump, delivered in chunks of different sizes the way a port would.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+    
+    @Param({"1", "64", "4096"})
+    public int chunk;
+    
+    private TPortManager manager;
+    private TPortReader reader;
+    private File empty;
+    private byte[] dump;
+    
+    @Setup
+    public void setup() throws IOException {
+        // Only the cost of assembling lines is of interest, not of logging them
+        TAsyncLogger.getLogger().setLevel(TAsyncLogger.FATAL);
+        empty = File.createTempFile("tftc-bench", ".txt");
+        manager = new TPortManager(null);
+        manager.setComPort("loop:bench");
+        manager.setScript(TScriptCompiler.compile(empty));
+        manager.connect();
+        reader = manager.getPortReader();
+        
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 256 * 1024; i++) {
+            sb.append("set interfaces ge-0/0/").append(i % 48).append(" unit 0 family ethernet-switching vlan members v")
+                    .append(i % 4094).append("\r\n");
+        }
+        dump = sb.toString().getBytes();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        manager.disconnect();
+        empty.delete();
+    }
+    
+    /**
+     * @return the bytes consumed, one operation being the whole dump
+     */
+    @Benchmark
+    public int assembleLines() {
+        for (int offset = 0; offset < dump.length; offset += chunk) {
+            reader.dataReceived(dump, offset, Math.min(chunk, dump.length - offset));
+        }
+        return dump.length;
+    }
+    
+}
@@ -0,0 +1,98 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tyo.tool.tftc.TAsyncLogger;
+import tyo.tool.tftc.TScript;
+import tyo.tool.tftc.TScriptCompiler;
+
+/**
+ * Parsing a whole script into instructions, the work parseLineForOpperand
+ * used to repeat for every line of every run.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptCompilerBenchmark {
+    
+    @Param({"100", "2000"})
+    public int lines;
+    
+    private File script;
+    
+    @Setup
+    public void setup() throws IOException {
+        TAsyncLogger.getLogger().setLevel(TAsyncLogger.FATAL);
+        script = File.createTempFile("tftc-bench", ".txt");
+        try (PrintWriter out = new PrintWriter(script, "UTF-8")) {
+            writeScript(out, lines);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        script.delete();
+    }
+    
+    @Benchmark
+    public TScript compile() {
+        return TScriptCompiler.compile(script);
+    }
+    
+    /**
+     * A typical switch turn-up: mostly configuration lines with variables,
+     * with a directive every few lines.
+     */
+    static void writeScript(PrintWriter out, int lines) {
+        out.println("#VAR HOST access-sw-017");
+        out.println("#VAR IP 10.20.30.40");
+        for (int i = 2; i < lines; i++) {
+            switch (i % 10) {
+                case 0:  out.println("#// interface " + i); break;
+                case 5:  out.println("#WAIT 0"); break;
+                default: out.println("set interfaces ge-0/0/" + i + " description \"[HOST] port " + i + " via [IP]\""); break;
+            }
+        }
+    }
+    
+}
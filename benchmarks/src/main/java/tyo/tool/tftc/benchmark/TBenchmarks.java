@@ -0,0 +1,59 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc.benchmark;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tyo.tool.tftc.Main;
+
+/**
+ * Runs the benchmarks with any JMH command line options given and saves the
+ * results to benchmarks/results/jmh-&lt;version&gt;-&lt;timestamp&gt;.json.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TBenchmarks {
+    
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        File results = new File("benchmarks/results");
+        results.mkdirs();
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(results, "jmh-" + Main.VERSION + "-" + stamp + ".json");
+        
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .resultFormat(ResultFormatType.JSON)
+                .result(file.getPath())
+                .build();
+        new Runner(options).run();
+        System.out.println("Results saved to " + file.getPath());
+    }
+    
+}
@@ -0,0 +1,92 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tyo.tool.tftc.TTemplate;
+
+/**
+ * Variable substitution of a script line: the compiled template against the
+ * per-line regex approach TPortWriter.fillInVariables used before scripts
+ * were compiled.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    
+    private static final String LINE = "set interfaces [IFACE] unit 0 family inet address [IP]/[MASK] description [HOST]";
+    
+    private final Map<String, String> variables = new HashMap<>();
+    private TTemplate template;
+    
+    @Setup
+    public void setup() {
+        variables.put("IFACE", "ge-0/0/1");
+        variables.put("IP", "10.20.30.40");
+        variables.put("MASK", "24");
+        variables.put("HOST", "access-sw-017");
+        template = TTemplate.compile(LINE);
+    }
+    
+    @Benchmark
+    public TTemplate compile() {
+        return TTemplate.compile(LINE);
+    }
+    
+    @Benchmark
+    public String render() {
+        return template.render(variables);
+    }
+    
+    @Benchmark
+    public String regexPerLine() {
+        Pattern p = Pattern.compile("\\[(.*?)\\](?!\\s*\\])\\s*", Pattern.DOTALL);
+        Matcher m = p.matcher(LINE);
+        String after = LINE;
+        while (m.find()) {
+            String value = variables.get(m.group(1));
+            after = after.replace("[" + m.group(1) + "]", (value == null) ? TTemplate.NOVAR : value);
+        }
+        return after;
+    }
+    
+}
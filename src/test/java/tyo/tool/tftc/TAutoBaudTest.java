@@ -0,0 +1,60 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TAutoBaudTest {
+    
+    private static final Pattern PROMPT = Pattern.compile("[>#$%]\\s*$");
+    
+    @Test
+    public void acceptsTextAndBarePrompts() {
+        assertTrue(sane("\r\nswitch> ".getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(sane("\r\n# ".getBytes(StandardCharsets.US_ASCII)));
+    }
+    
+    @Test
+    public void rejectsGarbageEndingInAPromptCharacter() {
+        byte[] garbage = {(byte) 0xF8, 0x00, (byte) 0x9E, 0x1C, (byte) 0xE0, (byte) 0x80, 0x7F, '>'};
+        assertFalse(sane(garbage));
+    }
+    
+    @Test
+    public void rejectsSilence() {
+        assertFalse(sane(new byte[0]));
+    }
+    
+    private static boolean sane(byte[] data) {
+        return TAutoBaud.isSane(data, data.length, PROMPT);
+    }
+    
+}
@@ -0,0 +1,84 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TCodecTest {
+    
+    @Test
+    public void holdsBackASplitCharacter() {
+        TCodec codec = TCodec.forName(TCodec.UTF8);
+        byte[] data = "caf\u00e9 \u20ac".getBytes(StandardCharsets.UTF_8);
+        assertEquals("caf", codec.decode(data, 0, 4));
+        assertEquals("\u00e9 ", codec.decode(data, 4, 3));
+        assertEquals("", codec.decode(data, 7, 1));
+        assertEquals("\u20ac", codec.decode(data, 8, 1));
+    }
+    
+    @Test
+    public void peeksWithoutDisturbingTheStream() {
+        TCodec codec = TCodec.forName("utf-8");
+        byte[] data = "\u00e9t\u00e9".getBytes(StandardCharsets.UTF_8);
+        assertEquals("", codec.decode(data, 0, 1));
+        assertEquals("t\u00e9", codec.peek(data, 2, 3));
+        assertEquals("\u00e9t\u00e9", codec.decode(data, 1, 4));
+    }
+    
+    @Test
+    public void passesEveryByteThroughRaw() {
+        TCodec codec = TCodec.forName("RAW");
+        assertEquals(TCodec.RAW, codec.getName());
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        String text = codec.decode(data, 0, data.length);
+        assertEquals(256, text.length());
+        assertArrayEquals(data, codec.encode(text));
+    }
+    
+    @Test
+    public void encodesInTheSessionCharset() {
+        assertArrayEquals("\u00e9\r".getBytes(StandardCharsets.UTF_8), TCodec.forName(TCodec.UTF8).encode("\u00e9\r"));
+        assertArrayEquals(new byte[] {(byte) 0xE9, '\r'}, TCodec.forName("ISO-8859-1").encode("\u00e9\r"));
+        assertEquals("UTF-8", TCodec.forName("utf8").getName());
+    }
+    
+    @Test
+    public void rejectsUnknownCharsets() {
+        try {
+            TCodec.forName("klingon-8");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Unknown charset 'klingon-8'.", ex.getMessage());
+        }
+    }
+    
+}
@@ -0,0 +1,88 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TExtractorTest {
+    
+    private static String extract(TExtractor extractor, String... lines) {
+        TExtractor.Cursor cursor = extractor.cursor();
+        for (String line : lines) {
+            String value = cursor.feed(line);
+            if (value != null) return value;
+        }
+        return null;
+    }
+    
+    @Test
+    public void extractsTheFirstGroupOrTheWholeMatch() {
+        String[] response = {"show version\r\n", "Model: ex2200\r\n", "JUNOS 15.1R7\r\n"};
+        assertEquals("15.1R7", extract(TExtractor.compile("V", "REGEX", "JUNOS (\\S+)$"), response));
+        assertEquals("ex2200", extract(TExtractor.compile("M", "regex", "ex\\d+"), response));
+        assertNull(extract(TExtractor.compile("X", "REGEX", "IOS"), response));
+    }
+    
+    @Test
+    public void extractsALineOrAColumn() {
+        String[] response = {"show chassis\r\n", "  ABC123   ex2200  \r\n"};
+        assertEquals("  ABC123   ex2200  ", extract(TExtractor.compile("L", "LINE", "2"), response));
+        assertEquals("ex2200", extract(TExtractor.compile("C", "LINE", "2 2"), response));
+        assertEquals("", extract(TExtractor.compile("C", "LINE", "2 5"), response));
+        assertEquals("ABC123", extract(TExtractor.JUNIPER_SERIAL, response));
+    }
+    
+    @Test
+    public void extractsKeyedValues() {
+        TExtractor serial = TExtractor.compile("S", "KEY", "Serial number");
+        assertEquals("ABC123", extract(serial, "Model: ex2200\n", "Serial number: ABC123 \r\n"));
+        assertEquals("ABC123", extract(serial, "Serial number = ABC123\r"));
+        assertEquals("ABC123", extract(serial, "  Serial number    ABC123\n\r\n"));
+        assertNull(extract(serial, "Serial numbers: none\n"));
+    }
+    
+    @Test
+    public void rejectsBadSpecs() {
+        assertRejected("REGEX", "(");
+        assertRejected("LINE", "0");
+        assertRejected("LINE", "1 2 3");
+        assertRejected("KEY", " ");
+        assertRejected("JSON", "x");
+    }
+    
+    private static void assertRejected(String kind, String spec) {
+        try {
+            TExtractor.compile("X", kind, spec);
+            fail(kind + " " + spec);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+}
@@ -0,0 +1,108 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TInventoryTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private TInventory open(String name, String... lines) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return new TInventory(file);
+    }
+    
+    @Test
+    public void readsQuotedCsvFields() throws IOException {
+        try (TInventory inventory = open("devices.csv", "port,hostname,motd", "tcp://10.0.0.1:23, sw1 ,\"Hello, \"\"world\"\"\"", "", "/dev/ttyUSB0,sw2,")) {
+            Map<String, String> row = inventory.next();
+            assertEquals("tcp://10.0.0.1:23", row.get("port"));
+            assertEquals("sw1", row.get("hostname"));
+            assertEquals("Hello, \"world\"", row.get("motd"));
+            row = inventory.next();
+            assertEquals("/dev/ttyUSB0", row.get("port"));
+            assertEquals("", row.get("motd"));
+            assertFalse(inventory.hasNext());
+        }
+    }
+    
+    @Test
+    public void readsFlatJsonObjects() throws IOException {
+        try (TInventory inventory = open("devices.jsonl", "{\"port\": \"loop:a\", \"vlan\": 10, \"dns\": [\"1.1.1.1\", \"8.8.8.8\"], \"note\": \"tab\\there \\u00e9\", \"site\": null}")) {
+            Map<String, String> row = inventory.next();
+            assertEquals("loop:a", row.get("port"));
+            assertEquals("10", row.get("vlan"));
+            assertEquals("1.1.1.1,8.8.8.8", row.get("dns"));
+            assertEquals("tab\there \u00e9", row.get("note"));
+            assertEquals("", row.get("site"));
+        }
+    }
+    
+    @Test
+    public void refusesACsvWithoutAPortColumn() throws IOException {
+        try {
+            open("devices.csv", "host,ip", "sw1,10.0.0.1");
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("\"port\""));
+        }
+    }
+    
+    @Test
+    public void skipsPastABadRow() throws IOException {
+        try (TInventory inventory = open("devices.csv", "port,hostname", "loop:a,sw1,extra", "loop:b,\"sw2", ",sw3", "loop:d,sw4")) {
+            assertBadRow(inventory, "devices.csv:2: expected 2 columns, found 3.");
+            assertBadRow(inventory, "devices.csv:3: unterminated quote.");
+            assertBadRow(inventory, "devices.csv:4: the row has no port.");
+            assertEquals("sw4", inventory.next().get("hostname"));
+        }
+    }
+    
+    private static void assertBadRow(TInventory inventory, String message) throws IOException {
+        try {
+            inventory.next();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertEquals(message, ex.getMessage());
+        }
+    }
+    
+}
@@ -0,0 +1,148 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TJournalTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private TScript compile(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return TScriptCompiler.compile(file);
+    }
+    
+    @Test
+    public void resumesFromTheLastCheckpoint() throws IOException {
+        TScript script = compile("one", "two", "three");
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal journal = TJournal.open(file, script, false);
+        journal.checkpoint(1);
+        journal.variable("HOST NAME", "sw 1\\a\r\n");
+        journal.lineEnd("\r\n");
+        journal.jsn(true);
+        journal.checkpoint(2);
+        
+        TJournal resumed = TJournal.open(file, script, true);
+        assertNotNull(resumed);
+        assertEquals(2, resumed.getPosition());
+        assertEquals("sw 1\\a\r\n", resumed.getVariables().get("HOST NAME"));
+        assertEquals("\r\n", resumed.getLineEnd());
+        assertEquals(Boolean.TRUE, resumed.getJSN());
+    }
+    
+    @Test
+    public void resumesAFinishedRunAtTheEnd() throws IOException {
+        TScript script = compile("one", "two");
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal journal = TJournal.open(file, script, false);
+        journal.checkpoint(1);
+        journal.finish();
+        
+        TJournal resumed = TJournal.open(file, script, true);
+        assertEquals(2, resumed.getPosition());
+        assertNull(resumed.getLineEnd());
+        assertNull(resumed.getJSN());
+    }
+    
+    @Test
+    public void ignoresARecordCutShort() throws IOException {
+        TScript script = compile("one", "two", "three");
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal journal = TJournal.open(file, script, false);
+        journal.checkpoint(1);
+        Files.write(file.toPath(), "PO".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        
+        TJournal resumed = TJournal.open(file, script, true);
+        assertNotNull(resumed);
+        assertEquals(1, resumed.getPosition());
+    }
+    
+    @Test
+    public void keepsTheRecordsAfterADamagedOne() throws IOException {
+        TScript script = compile("one", "two", "three");
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal journal = TJournal.open(file, script, false);
+        journal.checkpoint(1);
+        Files.write(file.toPath(), "POS\nPOS x\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        journal.variable("HOST", "sw1");
+        journal.checkpoint(2);
+        
+        TJournal resumed = TJournal.open(file, script, true);
+        assertEquals(2, resumed.getPosition());
+        assertEquals("sw1", resumed.getVariables().get("HOST"));
+    }
+    
+    @Test
+    public void cutsOffAnUnfinishedRecordBeforeAppending() throws IOException {
+        TScript script = compile("one", "two", "three");
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal journal = TJournal.open(file, script, false);
+        journal.checkpoint(1);
+        journal.close();
+        Files.write(file.toPath(), "VAR HOST sw".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        
+        TJournal resumed = TJournal.open(file, script, true);
+        assertNull(resumed.getVariables().get("HOST"));
+        resumed.checkpoint(2);
+        resumed.close();
+        
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals("POS 2", lines.get(lines.size() - 1));
+        assertEquals(3, lines.size());
+        assertEquals(2, TJournal.open(file, script, true).getPosition());
+    }
+    
+    @Test
+    public void refusesAJournalOfAnotherScript() throws IOException {
+        File file = new File(folder.getRoot(), "run.journal");
+        TJournal.open(file, compile("one"), false).checkpoint(1);
+        assertNull(TJournal.open(file, compile("one", "two"), true));
+    }
+    
+    @Test
+    public void startsOverWithoutAJournal() throws IOException {
+        TJournal journal = TJournal.open(new File(folder.getRoot(), "missing.journal"), compile("one"), true);
+        assertNotNull(journal);
+        assertEquals(0, journal.getPosition());
+    }
+    
+}
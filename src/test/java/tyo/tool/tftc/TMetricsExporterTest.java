@@ -0,0 +1,66 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TMetricsExporterTest {
+    
+    @Test
+    public void foldsClosedSessionsIntoOneSeriesPerPort() {
+        TMetricsExporter exporter = TMetricsExporter.getExporter();
+        for (int i = 0; i < 3; i++) {
+            TSessionMetrics session = new TSessionMetrics("loop:metrics-test");
+            exporter.register(session);
+            session.sent(100, 1000);
+            session.commandSent();
+            session.received(10);
+            exporter.unregister(session);
+        }
+        TSessionMetrics open = new TSessionMetrics("loop:metrics-test");
+        exporter.register(open);
+        open.sent(1, 1000);
+        
+        String prometheus = exporter.toPrometheus();
+        assertEquals(1, count(prometheus, "tftc_tx_bytes_total{port=\"loop:metrics-test\"}"));
+        assertTrue(prometheus.contains("tftc_tx_bytes_total{port=\"loop:metrics-test\"} 301\n"));
+        assertTrue(prometheus.contains("tftc_rx_bytes_total{port=\"loop:metrics-test\"} 30\n"));
+        assertTrue(prometheus.contains("tftc_command_round_trip_seconds_count{port=\"loop:metrics-test\"} 3\n"));
+        
+        exporter.unregister(open);
+        assertEquals(1, count(exporter.toJson(), "\"port\": \"loop:metrics-test\""));
+    }
+    
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) count++;
+        return count;
+    }
+    
+}
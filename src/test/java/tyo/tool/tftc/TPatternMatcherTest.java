@@ -0,0 +1,127 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import tyo.tool.tftc.TPatternMatcher.Action;
+import tyo.tool.tftc.TPatternMatcher.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TPatternMatcherTest {
+    
+    private final List<String> seen = new ArrayList<>();
+    
+    private TPatternMatcher.Cursor cursor(Rule... rules) {
+        return new TPatternMatcher(Arrays.asList(rules)).cursor(new TPatternMatcher.Listener() {
+            @Override
+            public void matched(Rule rule) {
+                seen.add(rule.toString());
+            }
+        });
+    }
+    
+    private static Rule literal(String pattern) {
+        return new Rule(pattern, false, Action.WARN, null);
+    }
+    
+    private static Rule regex(String pattern) {
+        return new Rule(pattern, true, Action.WARN, null);
+    }
+    
+    private static void feed(TPatternMatcher.Cursor cursor, String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        cursor.feed(data, 0, data.length);
+    }
+    
+    @Test
+    public void findsOverlappingLiterals() {
+        TPatternMatcher.Cursor cursor = cursor(literal("he"), literal("she"), literal("hers"));
+        feed(cursor, "ushers");
+        assertEquals(Arrays.asList("\"she\"", "\"he\"", "\"hers\""), seen);
+    }
+    
+    @Test
+    public void findsLiteralsSplitAcrossChunks() {
+        TPatternMatcher.Cursor cursor = cursor(literal("--More--"), literal("\u00dcberschrift"));
+        feed(cursor, "line\r\n--Mo");
+        assertTrue(seen.isEmpty());
+        feed(cursor, "re--");
+        byte[] data = "\u00dcberschrift".getBytes(StandardCharsets.UTF_8);
+        cursor.feed(data, 0, 1);
+        cursor.feed(data, 1, data.length - 1);
+        assertEquals(Arrays.asList("\"--More--\"", "\"\u00dcberschrift\""), seen);
+    }
+    
+    @Test
+    public void firesEachRegexOncePerLine() {
+        TPatternMatcher matcher = new TPatternMatcher(Arrays.asList(regex("% Invalid"), regex("[Ee]rror \\d+"), literal("x")));
+        assertTrue(matcher.hasRegex());
+        TPatternMatcher.Cursor cursor = cursor(regex("% Invalid"), regex("[Ee]rror \\d+"));
+        cursor.matchLine("% Inv", 10);
+        cursor.matchLine("% Invalid input", 10);
+        cursor.matchLine("% Invalid input, error 7", 10);
+        assertEquals(Arrays.asList("/% Invalid/", "/[Ee]rror \\d+/"), seen);
+        cursor.matchLine("% Invalid input", 40);
+        assertEquals(3, seen.size());
+    }
+    
+    @Test
+    public void firesOverlappingRegexesOnTheSameLine() {
+        TPatternMatcher.Cursor cursor = cursor(regex("(\\w+) error"), regex("error (\\d+)"), regex("\\d+"));
+        cursor.matchLine("parity error 42", 0);
+        assertEquals(Arrays.asList("/(\\w+) error/", "/error (\\d+)/", "/\\d+/"), seen);
+    }
+    
+    @Test
+    public void rejectsBackreferences() {
+        assertTrue(TPatternMatcher.hasBackreference("(a)\\1"));
+        assertTrue(TPatternMatcher.hasBackreference("(?<x>a)\\k<x>"));
+        assertFalse(TPatternMatcher.hasBackreference("a\\\\1"));
+        assertFalse(TPatternMatcher.hasBackreference("\\Q\\1\\E\\d"));
+        try {
+            new TPatternMatcher(Arrays.asList(regex("(a)\\1")));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void ignoresLinesWithoutRegexRules() {
+        assertFalse(new TPatternMatcher(Arrays.asList(literal("x"))).hasRegex());
+        cursor(literal("x")).matchLine("x", 0);
+        assertTrue(seen.isEmpty());
+    }
+    
+}
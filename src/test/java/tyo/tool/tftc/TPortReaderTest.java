@@ -0,0 +1,139 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TPortReaderTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private TPortManager manager;
+    private TLoopbackTransport host;
+    private TLoopbackTransport device;
+    private TPortReader reader;
+    
+    @Before
+    public void setUp() throws Exception {
+        manager = new TPortManager((Main) null);
+        manager.setComPort("loop:reader-test");
+        manager.open();
+        TLoopbackTransport[] pair = TLoopbackTransport.pair("loop:reader-test-pair");
+        host = pair[0];
+        device = pair[1];
+        reader = new TPortReader(manager, host);
+        host.setListener(reader);
+        host.open();
+        device.open();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        host.close();
+        device.close();
+        manager.disconnect();
+    }
+    
+    @Test
+    public void completesOnAPromptWithoutALineEnd() throws Exception {
+        CompletableFuture<String> future = reader.requestResult("show load");
+        send("show load\r\nLoad: low\r\nsw1# ");
+        assertEquals("show load\r\nLoad: low\r\nsw1# ", future.get(1, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void waitsOutAPromptCharacterAtTheEndOfAChunk() throws Exception {
+        CompletableFuture<String> future = reader.requestResult("show load");
+        send("show load\r\nLoad: 45%");
+        Thread.sleep(10);
+        send(" used\r\nsw1# ");
+        assertEquals("show load\r\nLoad: 45% used\r\nsw1# ", future.get(1, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void endsTheResponseOnAPromptLineEnd() throws Exception {
+        File script = folder.newFile();
+        Files.write(script.toPath(), "#LINEEND >".getBytes(StandardCharsets.UTF_8));
+        manager.run(TScriptCompiler.compile(script));
+        
+        CompletableFuture<String> future = reader.requestResult("show version");
+        send("show version\r\nJUNOS 15.1\r\nsw1>");
+        assertEquals("show version\r\nJUNOS 15.1\r\nsw1>", future.get(1, TimeUnit.SECONDS));
+        
+        future = reader.requestResult("show version", TExtractor.compile("V", "REGEX", "JUNOS (\\S+)"));
+        send("show version\r\nModel ex2200\r\nsw1>");
+        assertNull(future.get(1, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void releasesEchoPacingOnTheLiteralEcho() throws Exception {
+        reader.armEcho("set a.b (x)");
+        send("set a.b (y)\r\n");
+        assertFalse(reader.awaitPacing(100));
+        reader.armEcho("set a.b (x)");
+        send("set a.b (x)\r\n");
+        assertTrue(reader.awaitPacing(1000));
+    }
+    
+    @Test
+    public void waitsPastTheIdleWindowForASlowPrompt() throws Exception {
+        send("copy running-config startup-config\r\n");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    send("[OK]\r\nsw1# ");
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }).start();
+        long start = System.nanoTime();
+        assertTrue(reader.awaitQuiet(100, 2000));
+        assertTrue((System.nanoTime() - start) / 1000000 >= 300);
+    }
+    
+    private void send(String text) throws Exception {
+        device.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TRingBufferTest {
+    
+    @Test
+    public void roundsCapacityUpToAPowerOfTwo() {
+        assertEquals(16, new TRingBuffer(1).capacity());
+        assertEquals(64, new TRingBuffer(64).capacity());
+        assertEquals(128, new TRingBuffer(65).capacity());
+    }
+    
+    @Test
+    public void writesOnlyWhatFits() {
+        TRingBuffer buffer = new TRingBuffer(16);
+        assertEquals(16, buffer.write(new byte[20], 0, 20));
+        assertEquals(0, buffer.free());
+        assertEquals(0, buffer.write(new byte[1], 0, 1));
+    }
+    
+    @Test
+    public void keepsAbsolutePositionsAcrossTheWrap() {
+        TRingBuffer buffer = new TRingBuffer(16);
+        byte[] first = "0123456789ab".getBytes(StandardCharsets.US_ASCII);
+        buffer.write(first, 0, first.length);
+        buffer.skip(10);
+        byte[] second = "cdefghij".getBytes(StandardCharsets.US_ASCII);
+        buffer.write(second, 0, second.length);
+        
+        assertEquals(10, buffer.head());
+        assertEquals(20, buffer.tail());
+        assertEquals('a', buffer.get(10));
+        assertEquals('j', buffer.get(19));
+        byte[] copy = new byte[10];
+        buffer.copy(buffer.head(), copy, 0, copy.length);
+        assertArrayEquals("abcdefghij".getBytes(StandardCharsets.US_ASCII), copy);
+        assertEquals(10, buffer.size());
+    }
+    
+    @Test
+    public void skipAndClearConsumeFromTheHead() {
+        TRingBuffer buffer = new TRingBuffer(16);
+        buffer.write(new byte[8], 0, 8);
+        buffer.skip(100);
+        assertEquals(0, buffer.size());
+        assertEquals(8, buffer.head());
+        buffer.write(new byte[4], 0, 4);
+        buffer.clear();
+        assertEquals(buffer.tail(), buffer.head());
+    }
+    
+}
@@ -0,0 +1,97 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tyo.tool.tftc.TInstruction.Type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TScriptCompilerTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private TScript compile(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return TScriptCompiler.compile(file);
+    }
+    
+    @Test
+    public void keepsHashesInDirectiveArguments() throws IOException {
+        TScript script = compile("#PROMPT switch#", "#ON \"Press #\" SEND \" \"", "#ON /[a-z]+#$/ WARN");
+        assertNotNull(script);
+        TInstruction prompt = script.getInstructions().get(0);
+        assertEquals(Type.PROMPT, prompt.getType());
+        assertEquals("switch#", prompt.getPattern().pattern());
+        
+        final List<String> matched = new ArrayList<>();
+        TPatternMatcher.Cursor cursor = script.getMatcher().cursor(new TPatternMatcher.Listener() {
+            @Override
+            public void matched(TPatternMatcher.Rule rule) {
+                matched.add(rule.toString());
+            }
+        });
+        byte[] data = "Press # to continue".getBytes(StandardCharsets.UTF_8);
+        cursor.feed(data, 0, data.length);
+        cursor.matchLine("switch#", 0);
+        assertEquals(Arrays.asList("\"Press #\"", "/[a-z]+#$/"), matched);
+    }
+    
+    @Test
+    public void compilesSendLinesAndSkipsComments() throws IOException {
+        TScript script = compile("#// set the hostname", "set system host-name [HOST]", "#NEWLINE");
+        List<TInstruction> instructions = script.getInstructions();
+        assertEquals(2, instructions.size());
+        assertEquals(Type.SEND, instructions.get(0).getType());
+        assertEquals(2, instructions.get(0).getLineNumber());
+        assertTrue(instructions.get(0).getTemplate().getNames().contains("HOST"));
+        assertEquals(Type.NEWLINE, instructions.get(1).getType());
+    }
+    
+    @Test
+    public void rejectsScriptsWithErrors() throws IOException {
+        assertNull(compile("#BOGUS"));
+        assertNull(compile("#PROMPT ("));
+        assertNull(compile("#IDEMPOTENT", "show version"));
+        assertNull(compile("#ON \"x\" EXPLODE"));
+        assertNull(compile("#ON /(a)\\1/ WARN"));
+    }
+    
+}
@@ -0,0 +1,56 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TSocketTransportTest {
+    
+    @Test
+    public void parsesHostAndPort() {
+        assertEquals(24523, TSocketTransport.parsePort("tcp://127.0.0.1:24523"));
+        assertEquals(1, TSocketTransport.parsePort("tcp://console-server.lab:1"));
+        assertEquals(65535, TSocketTransport.parsePort("tcp://[::1]:65535"));
+    }
+    
+    @Test
+    public void rejectsBadAddresses() {
+        assertEquals(-1, TSocketTransport.parsePort("tcp://host:telnet"));
+        assertEquals(-1, TSocketTransport.parsePort("tcp://host:0"));
+        assertEquals(-1, TSocketTransport.parsePort("tcp://host:70000"));
+        assertEquals(-1, TSocketTransport.parsePort("tcp://:23"));
+        assertEquals(-1, TSocketTransport.parsePort("tcp://host"));
+        assertEquals(-1, TSocketTransport.parsePort("COM3"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsBadAddresses() {
+        new TSocketTransport("tcp://host:99999");
+    }
+    
+}
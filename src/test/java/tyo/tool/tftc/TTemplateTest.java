@@ -0,0 +1,64 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TTemplateTest {
+    
+    @Test
+    public void rendersVariablesInPlace() {
+        TTemplate template = TTemplate.compile("set interfaces [IF] description [DESC]");
+        assertEquals(Arrays.asList("IF", "DESC"), template.getNames());
+        assertFalse(template.isConstant());
+        Map<String, String> variables = new HashMap<>();
+        variables.put("IF", "ge-0/0/1");
+        variables.put("DESC", "uplink");
+        assertEquals("set interfaces ge-0/0/1 description uplink", template.render(variables));
+    }
+    
+    @Test
+    public void marksUnknownVariables() {
+        TTemplate template = TTemplate.compile("hostname [HOST]");
+        assertEquals("hostname " + TTemplate.NOVAR, template.render(Collections.<String, String>emptyMap()));
+    }
+    
+    @Test
+    public void leavesConstantLinesAlone() {
+        TTemplate template = TTemplate.compile("show version");
+        assertTrue(template.isConstant());
+        assertEquals("show version", template.render(Collections.<String, String>emptyMap()));
+    }
+    
+}
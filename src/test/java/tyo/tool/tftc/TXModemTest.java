@@ -0,0 +1,103 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TXModemTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void crc16MatchesTheXModemCheckValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x31C3, TXModem.crc16(data, 0, data.length));
+        assertEquals(0, TXModem.crc16(data, 0, 0));
+    }
+    
+    @Test
+    public void sendsAFileToACrcReceiver() throws IOException {
+        byte[] original = new byte[3000];
+        new Random(42).nextBytes(original);
+        File file = folder.newFile();
+        Files.write(file.toPath(), original);
+        
+        TLoopbackTransport[] pair = TLoopbackTransport.pair("loop:xmodem-test");
+        final TTransport device = pair[1];
+        final ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        // A receiver that ACKs every block it gets intact
+        device.setListener(new TTransport.Listener() {
+            @Override
+            public void dataReceived(byte[] data, int offset, int length) {
+                try {
+                    for (int i = offset; i < offset + length; i++) {
+                        if (packet.size() == 0 && data[i] == 0x04) {
+                            device.write(new byte[] {0x06});
+                            continue;
+                        }
+                        packet.write(data[i]);
+                        byte[] block = packet.toByteArray();
+                        int size = (block[0] == 0x02) ? 1024 : 128;
+                        if (block.length < 3 + size + 2) continue;
+                        packet.reset();
+                        int crc = TXModem.crc16(block, 3, size);
+                        boolean intact = (block[3 + size] & 0xFF) == (crc >> 8) && (block[4 + size] & 0xFF) == (crc & 0xFF);
+                        if (intact) received.write(block, 3, size);
+                        device.write(new byte[] {(byte) (intact ? 0x06 : 0x15)});
+                    }
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        device.open();
+        pair[0].open();
+        TXModem xmodem = new TXModem(pair[0], false);
+        pair[0].setListener(xmodem);
+        device.write(new byte[] {'C'});
+        xmodem.send(file);
+        
+        byte[] data = received.toByteArray();
+        assertEquals(0, data.length % 128);
+        assertArrayEquals(original, Arrays.copyOf(data, original.length));
+        for (int i = original.length; i < data.length; i++) assertEquals(0x1A, data[i]);
+    }
+    
+}
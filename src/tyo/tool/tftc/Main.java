@@ -43,18 +43,37 @@ public class Main {
 
     public Main(String[] args) {       
         manager.getGetParserUtil().parseArgs(args);
-        manager.connect();
-        try {
-            TLogger.getLogger().info("Final sleep before exiting...");
-            Thread.sleep(1000);
-        } catch (InterruptedException ex) {
-            TLogger.getLogger().fatal(ex);
+        if (manager.isDiscoverMode()) {
+            TDiscovery discovery = new TDiscovery(manager);
+            exit(discovery.run() ? 0 : 1);
         }
-        manager.disconnect();
-        exit(0);
+        if (manager.isDaemonMode()) {
+            TDaemon daemon = new TDaemon(manager);
+            exit(daemon.run() ? 0 : 1);
+        }
+        if (manager.getInventory() != null) {
+            TInventoryRunner runner = new TInventoryRunner(manager);
+            exit(runner.run() ? 0 : 1);
+        }
+        if (manager.getJobGraph() != null) {
+            TGraphRunner runner = new TGraphRunner(manager);
+            exit(runner.run() ? 0 : 1);
+        }
+        if (manager.isFleetMode()) {
+            TFleetRunner runner = new TFleetRunner(manager);
+            exit(runner.run() ? 0 : 1);
+        }
+        boolean success = manager.connect();
+        if (manager.isConnected()) {
+            manager.settle();
+            manager.disconnect();
+        }
+        exit(success ? 0 : 1);
     }
     
     public static void exit(int i) {
+        TAsyncLogger.getLogger().flush();
+        TMetricsExporter.getExporter().export();
         if (i == 1) TLogger.getLogger().fatal("End.");
         if (i == 0) TLogger.getLogger().info("End.");
         System.exit(i);
@@ -0,0 +1,205 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import tyo.util.TLogger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps TLogger off the serial threads. Messages are queued as their parts
+ * and only concatenated and written by a single background thread. Messages
+ * below the level are dropped before anything is queued, and when the queue
+ * is full they are counted instead of blocking the caller.
+ * <p>
+ * Everything logged while ports may be open, by the sessions, the port
+ * manager and the runners, goes through this queue so it is written in the
+ * order it happened. Only what runs before the first port is opened, i.e.
+ * option parsing and script compilation, and the final "End." after
+ * {@link #flush}, write to TLogger directly.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TAsyncLogger {
+    
+    public static final int LOG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    public static final int FATAL = 4;
+    
+    private static final int CAPACITY = 8192;
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final TAsyncLogger LOGGER = new TAsyncLogger();
+    
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile int level = LOG;
+    
+    private TAsyncLogger() {
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "tftc-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
+    }
+    
+    public static TAsyncLogger getLogger() {
+        return LOGGER;
+    }
+    
+    /**
+     * @param level the lowest level that is written
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+    
+    public boolean isEnabled(int level) {
+        return level >= this.level;
+    }
+    
+    public void log(int level, Object a) {
+        log(level, a, null, null, null);
+    }
+    
+    public void log(int level, Object a, Object b) {
+        log(level, a, b, null, null);
+    }
+    
+    public void log(int level, Object a, Object b, Object c) {
+        log(level, a, b, c, null);
+    }
+    
+    /**
+     * Queues a message made of up to four parts, concatenated when written.
+     */
+    public void log(int level, Object a, Object b, Object c, Object d) {
+        if (level < this.level) return;
+        if (size.incrementAndGet() > CAPACITY) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Record(level, a, b, c, d, null));
+    }
+    
+    /**
+     * Queues a message of more than four parts.
+     */
+    public void log(int level, Object a, Object b, Object c, Object d, Object... more) {
+        if (level < this.level) return;
+        if (size.incrementAndGet() > CAPACITY) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Record(level, a, b, c, d, more));
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Waits up to two seconds for everything queued so far to be written.
+     */
+    public void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (size.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_PARK / 5);
+        }
+        reportDropped();
+    }
+    
+    private void drainLoop() {
+        while (true) {
+            Record record = queue.poll();
+            if (record == null) {
+                reportDropped();
+                LockSupport.parkNanos(IDLE_PARK);
+                continue;
+            }
+            write(record);
+            size.decrementAndGet();
+        }
+    }
+    
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) TLogger.getLogger().warn("Log queue full, " + count + " message(s) dropped.");
+    }
+    
+    private static void write(Record record) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(record.a);
+        if (record.b != null) sb.append(record.b);
+        if (record.c != null) sb.append(record.c);
+        if (record.d != null) sb.append(record.d);
+        if (record.more != null) {
+            for (Object part : record.more) sb.append(part);
+        }
+        String message = sb.toString();
+        switch (record.level) {
+            case LOG:   TLogger.getLogger().log(message); break;
+            case INFO:  TLogger.getLogger().info(message); break;
+            case WARN:  TLogger.getLogger().warn(message); break;
+            case ERROR: TLogger.getLogger().error(message); break;
+            default:    TLogger.getLogger().fatal(message); break;
+        }
+    }
+    
+    private static final class Record {
+        
+        private final int level;
+        private final Object a;
+        private final Object b;
+        private final Object c;
+        private final Object d;
+        private final Object[] more;
+        
+        Record(int level, Object a, Object b, Object c, Object d, Object[] more) {
+            this.level = level;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.more = more;
+        }
+    }
+    
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the fastest baud rate a console answers at. Each candidate is tried
+ * fastest first by sending the probe text; a rate is accepted when the
+ * answer is mostly printable text rather than the line noise of a
+ * mismatched rate, and holds a letter, a digit or the device prompt.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TAutoBaud implements TTransport.Listener {
+    
+    public static final int[] CANDIDATES = {921600, 460800, 230400, 115200, 57600, 38400, 19200, 9600};
+    
+    private static final int PROBE_WINDOW = 300;
+    private static final int MIN_PRINTABLE_PERCENT = 90;
+    
+    private final Pattern prompt;
+    private final byte[] probeText;
+    private final byte[] received = new byte[4096];
+    private int length = 0;
+    
+    private TAutoBaud(Pattern prompt, byte[] probeText) {
+        this.prompt = prompt;
+        this.probeText = probeText;
+    }
+    
+    /**
+     * @param text the encoded probe sent at each rate, usually a carriage
+     * return
+     * @return the fastest rate that answered sanely, or 0 if none did
+     */
+    public static int probe(String comPort, int dataBits, int stopBits, int parity, Pattern prompt, byte[] text) {
+        TAutoBaud probe = new TAutoBaud(prompt, text);
+        TSerialTransport transport = new TSerialTransport(comPort, CANDIDATES[CANDIDATES.length - 1], dataBits, stopBits, parity);
+        transport.setListener(probe);
+        try {
+            transport.open();
+            for (int rate : CANDIDATES) {
+                if (!transport.setBaudRate(rate)) {
+                    TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Probing ", comPort, " at ", rate, " baud... unsupported.");
+                    continue;
+                }
+                boolean sane = probe.tryRate(transport);
+                TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Probing ", comPort, " at ", rate, " baud... ", (sane ? "OK." : "no sane answer."));
+                if (sane) return rate;
+            }
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Could not probe ", comPort, ": ", ex);
+        } finally {
+            try {
+                if (transport.isOpen()) transport.close();
+            } catch (IOException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+            }
+        }
+        return 0;
+    }
+    
+    private synchronized boolean tryRate(TTransport transport) throws IOException {
+        length = 0;
+        transport.write(probeText);
+        long deadline = System.currentTimeMillis() + PROBE_WINDOW;
+        long left;
+        while ((left = deadline - System.currentTimeMillis()) > 0 && !prompt.matcher(text()).find()) {
+            try {
+                wait(left);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return isSane(received, length, prompt);
+    }
+    
+    private String text() {
+        return new String(received, 0, length, StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * A mismatched rate shows up as framing garbage: control characters,
+     * high-bit bytes and few letters. Garbage can end in a prompt character
+     * too, so the prompt only stands in for the letters, never for the
+     * printable share.
+     */
+    static boolean isSane(byte[] data, int length, Pattern prompt) {
+        int printable = 0;
+        int alphanumeric = 0;
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xFF;
+            if ((b >= 0x20 && b < 0x7F) || b == '\r' || b == '\n' || b == '\t') printable++;
+            if (Character.isLetterOrDigit(b) && b < 0x80) alphanumeric++;
+        }
+        if (length == 0 || printable * 100 < length * MIN_PRINTABLE_PERCENT) return false;
+        return alphanumeric > 0 || prompt.matcher(new String(data, 0, length, StandardCharsets.ISO_8859_1)).find();
+    }
+
+    @Override
+    public synchronized void dataReceived(byte[] data, int offset, int count) {
+        count = Math.min(count, received.length - length);
+        System.arraycopy(data, offset, received, length, count);
+        length += count;
+        notifyAll();
+    }
+    
+}
@@ -0,0 +1,164 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Turns one session's bytes into text and back. The decoder is stateful: a
+ * multibyte character split across two reads is held back until the rest of
+ * it arrives, rather than turning into two replacement characters. The
+ * buffers are kept between calls, so decoding a line allocates only its
+ * String.
+ * <p>
+ * Sessions use UTF-8 unless told otherwise, the charset scripts are read in,
+ * so prompts, #VAR responses and #ON literals all see the same text. The
+ * "raw" codec maps each byte to the char of the same value and back, so
+ * 8-bit data pass through untouched whatever the platform's default charset
+ * is. Binary payloads (#RAWFILE, XMODEM) never go through a codec.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TCodec {
+    
+    public static final String RAW = "raw";
+    public static final String UTF8 = "UTF-8";
+    
+    private final String name;
+    private final CharsetDecoder decoder;
+    private final CharsetDecoder peeker;
+    private final CharsetEncoder encoder;
+    private ByteBuffer input;
+    private CharBuffer output;
+    private CharBuffer peeked;
+    private ByteBuffer encoded;
+    
+    private TCodec(String name, Charset charset) {
+        this.name = name;
+        if (charset == null) {
+            decoder = null;
+            peeker = null;
+            encoder = null;
+            return;
+        }
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        peeker = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        input = ByteBuffer.allocate(256);
+        output = CharBuffer.allocate(256);
+        peeked = CharBuffer.allocate(256);
+        encoded = ByteBuffer.allocate(256);
+    }
+    
+    /**
+     * @param name "raw" or the name of a charset, such as "UTF-8"
+     * @throws IllegalArgumentException if there is no such charset
+     */
+    public static TCodec forName(String name) {
+        if (RAW.equalsIgnoreCase(name)) return new TCodec(RAW, null);
+        try {
+            Charset charset = Charset.forName(name);
+            return new TCodec(charset.name(), charset);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+            throw new IllegalArgumentException("Unknown charset '" + name + "'.");
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Decodes the next bytes of the stream. An incomplete character at the
+     * end is kept and finished by the next call.
+     */
+    public String decode(byte[] data, int offset, int length) {
+        if (decoder == null) return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+        synchronized (decoder) {
+            input = ensure(input, input.position() + length);
+            input.put(data, offset, length);
+            input.flip();
+            int max = (int) Math.ceil(input.remaining() * (double) decoder.maxCharsPerByte());
+            if (output.capacity() < max) output = CharBuffer.allocate(Math.max(max, output.capacity() * 2));
+            output.clear();
+            decoder.decode(input, output, false);
+            input.compact();
+            output.flip();
+            return output.toString();
+        }
+    }
+    
+    /**
+     * Decodes bytes that are still to come through {@link #decode}, such as
+     * an incomplete line, without disturbing the stream.
+     */
+    public String peek(byte[] data, int offset, int length) {
+        if (peeker == null) return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+        synchronized (peeker) {
+            int max = (int) Math.ceil(length * (double) peeker.maxCharsPerByte()) + 1;
+            if (peeked.capacity() < max) peeked = CharBuffer.allocate(Math.max(max, peeked.capacity() * 2));
+            peeked.clear();
+            peeker.reset();
+            peeker.decode(ByteBuffer.wrap(data, offset, length), peeked, true);
+            peeker.flush(peeked);
+            peeked.flip();
+            return peeked.toString();
+        }
+    }
+    
+    public byte[] encode(String text) {
+        if (encoder == null) return text.getBytes(StandardCharsets.ISO_8859_1);
+        synchronized (encoder) {
+            int max = (int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar());
+            if (encoded.capacity() < max) encoded = ByteBuffer.allocate(Math.max(max, encoded.capacity() * 2));
+            encoded.clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(text), encoded, true);
+            encoder.flush(encoded);
+            encoded.flip();
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            return bytes;
+        }
+    }
+    
+    /**
+     * @return the buffer, or a copy of it with room for at least the given
+     * number of bytes
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() >= capacity) return buffer;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+    
+}
@@ -0,0 +1,251 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps sessions open between scripts and runs the jobs sent to it over a
+ * loopback socket, so a one line check does not pay for starting the JVM and
+ * opening the port every time. Jobs for the same port are queued and run one
+ * after the other; different ports run at the same time.
+ * <p>
+ * The protocol is one command per line, e.g. through netcat:
+ * <pre>
+ * RUN &lt;port&gt; &lt;file&gt;   runs a script; answered by QUEUED, one RX line per
+ *                       line received while it runs, then OK or FAILED
+ * CLOSE &lt;port&gt;         disconnects a port until the next job for it
+ * SHUTDOWN             disconnects every port and stops the daemon
+ * </pre>
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TDaemon {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CLOSE_TIMEOUT = 30;
+    
+    private final TPortManager template;
+    private final Map<String, Session> sessions = new LinkedHashMap<>();
+    private final ExecutorService clients = Executors.newCachedThreadPool(daemonThreads("tftc-client"));
+    private ServerSocket server;
+    
+    public TDaemon(TPortManager template) {
+        this.template = template;
+    }
+    
+    /**
+     * Accepts clients until a SHUTDOWN command.
+     * 
+     * @return false if the socket could not be opened
+     */
+    public boolean run() {
+        try {
+            server = new ServerSocket(template.getDaemonPort(), 50, InetAddress.getLoopbackAddress());
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.FATAL, "Could not listen on 127.0.0.1:", template.getDaemonPort(), ": ", ex);
+            return false;
+        }
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Waiting for jobs on 127.0.0.1:", template.getDaemonPort(), "...");
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException ex) {
+                if (!server.isClosed()) TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+            }
+        }
+        clients.shutdownNow();
+        synchronized (sessions) {
+            for (Session session : sessions.values()) session.close();
+            sessions.clear();
+        }
+        return true;
+    }
+    
+    private void serve(Socket socket) {
+        try (
+            Socket s = socket;
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), UTF8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), UTF8), true);
+        ) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] args = line.trim().split("\\s+", 3);
+                switch (args[0].toUpperCase()) {
+                    case "":         break;
+                    case "RUN":      runJob(args, out); break;
+                    case "CLOSE":    closeSession(args, out); break;
+                    case "SHUTDOWN": out.println("OK"); server.close(); return;
+                    default:         out.println("ERROR Unknown command '" + args[0] + "'."); break;
+                }
+            }
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, "Client dropped: ", ex);
+        }
+    }
+    
+    private void runJob(String[] args, final PrintWriter out) {
+        if (args.length < 3) {
+            out.println("ERROR Expected RUN <port> <file>.");
+            return;
+        }
+        String port = TStartupCommandParser.parseCOMPort(args[1]);
+        if (port == null) {
+            out.println("ERROR Invalid port '" + args[1] + "'.");
+            return;
+        }
+        TScript script = TScriptCompiler.compile(new File(args[2]));
+        if (script == null) {
+            out.println("ERROR " + args[2] + " could not be read or has errors, nothing was sent.");
+            return;
+        }
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(port);
+            if (session == null) {
+                session = new Session(port);
+                sessions.put(port, session);
+            }
+        }
+        long start = System.nanoTime();
+        out.println("QUEUED " + port + " " + script.getName());
+        Future<Boolean> job = session.submit(script, new Consumer<String>() {
+            @Override
+            public void accept(String line) {
+                out.println("RX " + line.replaceAll("[\r\n]+$", ""));
+            }
+        });
+        boolean success;
+        try {
+            success = job.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+            success = false;
+        }
+        out.println((success ? "OK " : "FAILED ") + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+    
+    private void closeSession(String[] args, PrintWriter out) {
+        Session session = null;
+        if (args.length > 1) {
+            String port = TStartupCommandParser.parseCOMPort(args[1]);
+            synchronized (sessions) {
+                if (port != null) session = sessions.remove(port);
+            }
+        }
+        if (session == null) {
+            out.println("ERROR No session for '" + ((args.length > 1) ? args[1] : "") + "'.");
+            return;
+        }
+        session.close();
+        out.println("OK");
+    }
+    
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    /**
+     * One open port and the queue of jobs waiting for it.
+     */
+    private class Session {
+        
+        private final TPortManager manager;
+        private final ExecutorService queue;
+        
+        Session(String port) {
+            this.manager = new TPortManager(template, port, null);
+            this.queue = Executors.newSingleThreadExecutor(daemonThreads("tftc-" + port));
+        }
+        
+        Future<Boolean> submit(final TScript script, final Consumer<String> tap) {
+            return queue.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    if (!manager.isConnected() && !manager.open()) return false;
+                    manager.getPortReader().setLineTap(tap);
+                    try {
+                        boolean success = manager.run(script);
+                        manager.settle();
+                        if (!success) manager.disconnect();
+                        return success;
+                    } finally {
+                        TAsyncLogger.getLogger().flush();
+                        if (manager.getPortReader() != null) manager.getPortReader().setLineTap(null);
+                    }
+                }
+            });
+        }
+        
+        /**
+         * Disconnects once the queued jobs are done.
+         */
+        void close() {
+            queue.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (manager.isConnected()) manager.disconnect();
+                }
+            });
+            queue.shutdown();
+            try {
+                queue.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+    }
+    
+}
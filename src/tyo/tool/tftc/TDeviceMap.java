@@ -0,0 +1,215 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import tyo.util.TLogger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The port to device map written by -discover, so later runs can name a
+ * device as "@name" wherever a port is expected. Kept as a tab separated
+ * text file:
+ * <pre>
+ * # name   port   baud     hostname  model   serial
+ * sw1      COM3   115200   sw1       ex2200  ABC123
+ * </pre>
+ * A device is named by its hostname, else its serial number, else its port.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TDeviceMap {
+    
+    public static final String DEFAULT_FILE = "tftc-devices.txt";
+    public static final String PREFIX = "@";
+    
+    private static final TDeviceMap deviceMap = new TDeviceMap();
+    private static final String NONE = "-";
+    
+    private File file = new File(DEFAULT_FILE);
+    private Map<String, Device> devices;
+    
+    private TDeviceMap() {
+    }
+    
+    public static TDeviceMap getDeviceMap() {
+        return deviceMap;
+    }
+    
+    /**
+     * @param file where the map is read from and saved to
+     */
+    public synchronized void setFile(File file) {
+        this.file = file;
+        devices = null;
+    }
+    
+    public synchronized File getFile() {
+        return file;
+    }
+    
+    /**
+     * @param name a device name, with or without the leading "@"
+     * @return the device, or null if the map has no such device
+     */
+    public synchronized Device lookup(String name) {
+        if (name.startsWith(PREFIX)) name = name.substring(PREFIX.length());
+        return load().get(name);
+    }
+    
+    /**
+     * Replaces the devices on the given ports with the ones found there, and
+     * rewrites the file. Devices on any other port are kept.
+     * 
+     * @param probed every port that was probed, whether it answered or not
+     * @param found the devices that answered
+     */
+    public synchronized void update(Collection<String> probed, Collection<Device> found) throws IOException {
+        Map<String, Device> updated = new LinkedHashMap<>();
+        for (Device device : load().values()) {
+            if (!probed.contains(device.port)) updated.put(device.name, device);
+        }
+        for (Device device : found) {
+            String name = device.name;
+            for (int n = 2; updated.containsKey(name); n++) name = device.name + "-" + n;
+            updated.put(name, new Device(name, device.port, device.baudRate, device.hostname, device.model, device.serial));
+        }
+        StringBuilder sb = new StringBuilder("# name\tport\tbaud\thostname\tmodel\tserial\n");
+        for (Device device : updated.values()) {
+            sb.append(device.name).append('\t').append(device.port).append('\t').append(device.baudRate)
+                    .append('\t').append(field(device.hostname)).append('\t').append(field(device.model))
+                    .append('\t').append(field(device.serial)).append('\n');
+        }
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, sb.toString().getBytes(Charset.forName("UTF-8")));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        devices = updated;
+    }
+    
+    private static String field(String value) {
+        return (value == null || value.isEmpty()) ? NONE : value.replaceAll("\\s+", "_");
+    }
+    
+    private Map<String, Device> load() {
+        if (devices != null) return devices;
+        devices = new LinkedHashMap<>();
+        if (!file.isFile()) return devices;
+        int lineNumber = 0;
+        String line;
+        try (
+            InputStream fis = new FileInputStream(file.getPath());
+            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
+            BufferedReader br = new BufferedReader(isr);
+        ) {
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length != 6) {
+                    TLogger.getLogger().warn(file.getName() + ":" + lineNumber + ": Expected 6 fields, skipping the line.");
+                    continue;
+                }
+                int baudRate;
+                try {
+                    baudRate = Integer.parseInt(fields[2]);
+                } catch (NumberFormatException nfe) {
+                    TLogger.getLogger().warn(file.getName() + ":" + lineNumber + ": Invalid baud rate '" + fields[2] + "', skipping the line.");
+                    continue;
+                }
+                devices.put(fields[0], new Device(fields[0], fields[1], baudRate, value(fields[3]), value(fields[4]), value(fields[5])));
+            }
+        } catch (IOException ex) {
+            TLogger.getLogger().error("Device map: " + ex);
+        }
+        return devices;
+    }
+    
+    private static String value(String field) {
+        return NONE.equals(field) ? null : field;
+    }
+    
+    /**
+     * A device found on a port, and the rate it answered at.
+     */
+    public static final class Device {
+        
+        private final String name;
+        private final String port;
+        private final int baudRate;
+        private final String hostname;
+        private final String model;
+        private final String serial;
+        
+        public Device(String name, String port, int baudRate, String hostname, String model, String serial) {
+            this.name = name;
+            this.port = port;
+            this.baudRate = baudRate;
+            this.hostname = hostname;
+            this.model = model;
+            this.serial = serial;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getPort() {
+            return port;
+        }
+        
+        public int getBaudRate() {
+            return baudRate;
+        }
+        
+        public String getHostname() {
+            return hostname;
+        }
+        
+        public String getModel() {
+            return model;
+        }
+        
+        public String getSerial() {
+            return serial;
+        }
+        
+        @Override
+        public String toString() {
+            return name + " (" + field(model) + ", " + field(serial) + ") on " + port + " at " + baudRate + " baud";
+        }
+        
+    }
+    
+}
@@ -0,0 +1,247 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jssc.SerialPortList;
+import tyo.tool.tftc.TDeviceMap.Device;
+
+/**
+ * Works out which device is wired to which port. Every port is probed at the
+ * same time: serial ports are first tried at each likely baud rate, then the
+ * probe text is sent and the answer read until the device goes quiet at its
+ * prompt, paging through any "--More--" prompts. The hostname is taken from the prompt, and
+ * the model and serial number from the first lines that look like them.
+ * Ports still busy at the deadline are given up on.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TDiscovery {
+    
+    private static final int MAX_PAGES = 20;
+    private static final int TAIL = 256;
+    
+    private static final Pattern HOSTNAME = Pattern.compile("^(?:[\\w.-]+@)?([A-Za-z][\\w.-]*)(?:\\([^)]*\\))?(?::\\S*)?\\s?[>#$%]\\s*$");
+    private static final Pattern PAGER = Pattern.compile("(?i)-+\\s*more\\s*-+[^\\n]*$");
+    
+    private static final TExtractor[] MODEL = {
+        TExtractor.compile("model", "REGEX", "(?i)^\\s*(?:model(?:\\s+number)?|product\\s+(?:id|name)|hardware\\s+model)\\s*[:=]?\\s+(\\S+)"),
+        TExtractor.compile("model", "REGEX", "(?i)^cisco\\s+(\\S+)\\s.*processor"),
+    };
+    private static final TExtractor[] SERIAL = {
+        TExtractor.compile("serial", "REGEX", "(?i)^\\s*(?:system\\s+|chassis\\s+)?serial(?:\\s+number|\\s+no\\.?|\\s+num)?\\s*[:=#]?\\s+(\\S+)"),
+        TExtractor.compile("serial", "REGEX", "(?i)processor board id\\s+(\\S+)"),
+        TExtractor.compile("serial", "REGEX", "^Chassis\\s+(\\S+)\\s+\\S"),
+    };
+    
+    private final TPortManager template;
+    
+    public TDiscovery(TPortManager template) {
+        this.template = template;
+    }
+    
+    /**
+     * Probes the -ports list, or every serial port if none was given, and
+     * saves what answered to the device map.
+     * 
+     * @return true if at least one device was found and the map was saved
+     */
+    public boolean run() {
+        List<String> ports = new ArrayList<>(template.getFleet().keySet());
+        if (ports.isEmpty()) ports = Arrays.asList(SerialPortList.getPortNames());
+        if (ports.isEmpty()) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "There are no ports to discover.");
+            return false;
+        }
+        final long deadline = System.currentTimeMillis() + template.getDiscoverDeadline() * 1000L;
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Discovering ", ports.size(), " ports, giving up after ", template.getDiscoverDeadline(), "(s)...");
+        
+        // Nearly all of the time is spent waiting on the devices, so every
+        // port gets its own thread
+        ExecutorService pool = Executors.newFixedThreadPool(ports.size());
+        Map<String, Future<Device>> probes = new LinkedHashMap<>();
+        for (final String port : ports) {
+            probes.put(port, pool.submit(new Callable<Device>() {
+                @Override
+                public Device call() throws Exception {
+                    return fingerprint(port, deadline);
+                }
+            }));
+        }
+        
+        List<Device> found = new ArrayList<>();
+        // Ports that timed out or failed to open keep what was known of them
+        List<String> settled = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Future<Device>> probe : probes.entrySet()) {
+                String port = probe.getKey();
+                try {
+                    Device device = probe.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    settled.add(port);
+                    if (device == null) {
+                        TAsyncLogger.getLogger().log(TAsyncLogger.WARN, port, ": no device answered.");
+                    } else {
+                        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, port, " => ", device);
+                        found.add(device);
+                    }
+                } catch (TimeoutException ex) {
+                    probe.getValue().cancel(true);
+                    TAsyncLogger.getLogger().log(TAsyncLogger.WARN, port, ": not fingerprinted before the deadline.");
+                } catch (ExecutionException ex) {
+                    TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, port, ": ", ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        TAsyncLogger.getLogger().flush();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Discovery summary: ", ports.size(), " ports, ", found.size(), " devices found.");
+        try {
+            TDeviceMap.getDeviceMap().update(settled, found);
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Saved the device map to \"", TDeviceMap.getDeviceMap().getFile().getPath(), "\".");
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Could not save the device map: ", ex);
+            return false;
+        }
+        return !found.isEmpty();
+    }
+    
+    /**
+     * @return the device on the port, or null if nothing answered
+     */
+    private Device fingerprint(String port, long deadline) throws IOException, InterruptedException {
+        TPortManager session = new TPortManager(template, port, null);
+        int rate = session.probeBaudRate();
+        if (rate == 0) return null;
+        session.setBaudRate(rate);
+        
+        TTransport transport = session.createPortTransport();
+        Capture capture = new Capture(session.getCodec());
+        transport.setListener(capture);
+        transport.open();
+        String text;
+        try {
+            transport.write(session.getCodec().encode(template.getProbe()));
+            text = capture.await(transport, deadline);
+        } finally {
+            transport.close();
+        }
+        if (text.trim().isEmpty()) return null;
+        
+        String hostname = null;
+        String model = null;
+        String serial = null;
+        TExtractor.Cursor[] models = cursors(MODEL);
+        TExtractor.Cursor[] serials = cursors(SERIAL);
+        for (String line : text.split("\r\n|\r|\n")) {
+            Matcher prompt = HOSTNAME.matcher(line.trim());
+            if (prompt.matches()) hostname = prompt.group(1);
+            if (model == null) model = feed(models, line);
+            if (serial == null) serial = feed(serials, line);
+        }
+        String name = (hostname != null) ? hostname : (serial != null) ? serial : port;
+        return new Device(name, port, rate, hostname, model, serial);
+    }
+    
+    private static TExtractor.Cursor[] cursors(TExtractor[] extractors) {
+        TExtractor.Cursor[] cursors = new TExtractor.Cursor[extractors.length];
+        for (int i = 0; i < extractors.length; i++) cursors[i] = extractors[i].cursor();
+        return cursors;
+    }
+    
+    private static String feed(TExtractor.Cursor[] cursors, String line) {
+        for (TExtractor.Cursor cursor : cursors) {
+            String value = cursor.feed(line);
+            if (value != null && !value.isEmpty()) return value;
+        }
+        return null;
+    }
+    
+    /**
+     * Collects one port's answer to the probe.
+     */
+    private final class Capture implements TTransport.Listener {
+        
+        private final TCodec codec;
+        private final StringBuilder text = new StringBuilder();
+        private long lastReceived;
+        
+        Capture(TCodec codec) {
+            this.codec = codec;
+        }
+        
+        /**
+         * Waits until the device has gone quiet at its prompt, or has said
+         * nothing more for the response timeout, and never past the deadline.
+         */
+        synchronized String await(TTransport transport, long deadline) throws IOException, InterruptedException {
+            long idle = template.getIdleWindow();
+            long timeout = template.getResponseTimeout();
+            lastReceived = System.currentTimeMillis();
+            int pages = 0;
+            while (true) {
+                long now = System.currentTimeMillis();
+                long quiet = now - lastReceived;
+                if (now >= deadline || quiet >= timeout) break;
+                if (quiet >= idle && text.length() > 0) {
+                    String tail = text.substring(Math.max(0, text.length() - TAIL));
+                    if (pages < MAX_PAGES && PAGER.matcher(tail).find()) {
+                        pages++;
+                        transport.write(codec.encode(" "));
+                        lastReceived = now;
+                        continue;
+                    }
+                    if (template.getPrompt().matcher(tail).find()) break;
+                }
+                wait(Math.max(1, Math.min((quiet < idle) ? idle - quiet : timeout - quiet, deadline - now)));
+            }
+            return text.toString();
+        }
+        
+        @Override
+        public synchronized void dataReceived(byte[] data, int offset, int count) {
+            text.append(codec.decode(data, offset, count));
+            lastReceived = System.currentTimeMillis();
+            notifyAll();
+        }
+        
+    }
+    
+}
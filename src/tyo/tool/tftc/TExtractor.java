@@ -0,0 +1,153 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Picks a value out of a command's response. Declared in a script with
+ * "#EXTRACT &lt;name&gt; &lt;kind&gt; &lt;spec&gt;", where kind is one of:
+ * <pre>
+ * REGEX &lt;regex&gt;        the first group of the first matching line, or the
+ *                      whole match if the regex has no groups
+ * LINE &lt;line&gt; [col]    a line of the response (the echo is line 1), or a
+ *                      whitespace separated column of it, both from 1
+ * KEY &lt;key&gt;            the value of a "key: value", "key = value" or
+ *                      "key   value" line
+ * </pre>
+ * An extractor is compiled once and shared between sessions; each response
+ * is read through a {@link Cursor} that is fed one line at a time, so the
+ * value is known as soon as its line has arrived.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TExtractor {
+    
+    private enum Kind { REGEX, LINE, KEY }
+    
+    /**
+     * What #JSN true used to slice by hand: the first word of the line after
+     * the echo.
+     */
+    public static final TExtractor JUNIPER_SERIAL = new TExtractor("JSN", Kind.LINE, null, 2, 1);
+    
+    private final String name;
+    private final Kind kind;
+    private final Pattern pattern;
+    private final int line;
+    private final int column;
+    
+    private TExtractor(String name, Kind kind, Pattern pattern, int line, int column) {
+        this.name = name;
+        this.kind = kind;
+        this.pattern = pattern;
+        this.line = line;
+        this.column = column;
+    }
+    
+    /**
+     * @throws IllegalArgumentException with a message fit for the script's
+     * error report
+     */
+    public static TExtractor compile(String name, String kind, String spec) {
+        if (spec == null || spec.trim().isEmpty()) throw new IllegalArgumentException("Missing spec for extractor '" + name + "'.");
+        switch (kind.toUpperCase()) {
+            case "REGEX":
+                try {
+                    return new TExtractor(name, Kind.REGEX, Pattern.compile(spec), 0, 0);
+                } catch (PatternSyntaxException ex) {
+                    throw new IllegalArgumentException("Invalid extractor regex: " + ex.getDescription());
+                }
+            case "LINE":
+                String[] numbers = spec.trim().split("\\s+");
+                try {
+                    int line = Integer.parseInt(numbers[0]);
+                    int column = (numbers.length > 1) ? Integer.parseInt(numbers[1]) : 0;
+                    if (line < 1 || column < 0 || numbers.length > 2) throw new NumberFormatException();
+                    return new TExtractor(name, Kind.LINE, null, line, column);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("Expected LINE <line> [column], counting from 1.");
+                }
+            case "KEY":
+                Pattern key = Pattern.compile("^\\s*" + Pattern.quote(spec.trim()) + "\\s*(?:[:=]\\s*|\\s+)(.*?)\\s*$");
+                return new TExtractor(name, Kind.KEY, key, 0, 0);
+            default:
+                throw new IllegalArgumentException("Unknown extractor kind '" + kind + "', expected REGEX, LINE or KEY.");
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return a cursor for reading one response
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * The state of one response being read. Not thread safe.
+     */
+    public final class Cursor {
+        
+        private int lines = 0;
+        
+        private Cursor() {
+        }
+        
+        /**
+         * @param text a complete line of the response
+         * @return the value, or null if it has not turned up yet
+         */
+        public String feed(String text) {
+            text = stripLineEnd(text);
+            lines++;
+            switch (kind) {
+                case LINE:
+                    if (lines != line) return null;
+                    if (column == 0) return text;
+                    String[] columns = text.trim().split("\\s+");
+                    return (column <= columns.length) ? columns[column - 1] : "";
+                case KEY:
+                    Matcher key = pattern.matcher(text);
+                    return key.matches() ? key.group(1) : null;
+                default:
+                    Matcher regex = pattern.matcher(text);
+                    if (!regex.find()) return null;
+                    String value = (regex.groupCount() > 0) ? regex.group(1) : regex.group();
+                    return (value == null) ? "" : value;
+            }
+        }
+        
+    }
+    
+    private static String stripLineEnd(String text) {
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == '\r' || text.charAt(end - 1) == '\n')) end--;
+        return (end == text.length()) ? text : text.substring(0, end);
+    }
+    
+}
@@ -0,0 +1,135 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one session per port at the same time, so a fleet run takes as long as
+ * its slowest device rather than the sum of all of them.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TFleetRunner {
+    
+    private final TPortManager template;
+    
+    public TFleetRunner(TPortManager template) {
+        this.template = template;
+    }
+    
+    /**
+     * Runs every port of the fleet and logs a summary of the results.
+     * 
+     * @return true if every port completed its script
+     */
+    public boolean run() {
+        Map<String, TScript> fleet = template.getFleet();
+        int threads = Math.max(1, Math.min(template.getFleetConcurrency(), fleet.size()));
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Running ", fleet.size(), " ports, ", threads, " at a time...");
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Map.Entry<String, TScript> entry : fleet.entrySet()) {
+            futures.add(pool.submit(new Session(entry.getKey(), entry.getValue())));
+        }
+        pool.shutdown();
+        
+        boolean success = true;
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                Result result = future.get();
+                results.add(result);
+                success &= result.success;
+            } catch (InterruptedException | ExecutionException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+                success = false;
+            }
+        }
+        
+        TAsyncLogger.getLogger().flush();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Fleet summary:");
+        for (Result result : results) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, result);
+        }
+        return success;
+    }
+    
+    private class Session implements Callable<Result> {
+        
+        private final String comPort;
+        private final TScript script;
+        
+        Session(String comPort, TScript script) {
+            this.comPort = comPort;
+            this.script = script;
+        }
+        
+        @Override
+        public Result call() {
+            long start = System.nanoTime();
+            TPortManager session = new TPortManager(template, comPort, script);
+            boolean success;
+            try {
+                success = session.connect();
+            } catch (RuntimeException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, comPort, ": ", ex);
+                success = false;
+            } finally {
+                if (session.isConnected()) {
+                    session.settle();
+                    session.disconnect();
+                }
+            }
+            return new Result(comPort, script, success, (System.nanoTime() - start) / 1000000);
+        }
+    }
+    
+    private static class Result {
+        
+        private final String comPort;
+        private final TScript script;
+        private final boolean success;
+        private final long millis;
+        
+        Result(String comPort, TScript script, boolean success, long millis) {
+            this.comPort = comPort;
+            this.script = script;
+            this.success = success;
+            this.millis = millis;
+        }
+        
+        @Override
+        public String toString() {
+            return comPort + "\t" + (success ? "OK" : "FAILED") + "\t" + millis + "(ms)\t" + script.getName();
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import tyo.tool.tftc.TJobGraph.Job;
+
+/**
+ * Runs a {@link TJobGraph}: every job whose dependencies have succeeded is
+ * started as soon as the global limit, its group's limit and its port allow.
+ * Jobs that depend on a failed job are skipped. The summary ends with the
+ * critical path, the chain of jobs that decided how long the run took.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TGraphRunner {
+    
+    private static final String OK = "OK";
+    private static final String FAILED = "FAILED";
+    private static final String SKIPPED = "SKIPPED";
+    
+    private final TPortManager template;
+    private final TJobGraph graph;
+    private final Map<Job, Result> results = new LinkedHashMap<>();
+    
+    public TGraphRunner(TPortManager template) {
+        this.template = template;
+        this.graph = template.getJobGraph();
+    }
+    
+    /**
+     * Runs the graph and logs a summary of the results.
+     * 
+     * @return true if every job succeeded
+     */
+    public boolean run() {
+        List<Job> jobs = graph.getJobs();
+        int threads = Math.max(1, Math.min(template.getFleetConcurrency(), jobs.size()));
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Running ", jobs.size(), " jobs, ", threads, " at a time...");
+        
+        Map<Job, Integer> waiting = new HashMap<>();
+        List<Job> ready = new ArrayList<>();
+        for (Job job : jobs) {
+            waiting.put(job, job.getDependencies().size());
+            if (job.getDependencies().isEmpty()) ready.add(job);
+        }
+        Map<String, Integer> groupsRunning = new HashMap<>();
+        Set<String> portsBusy = new HashSet<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Result> completion = new ExecutorCompletionService<>(pool);
+        long start = System.nanoTime();
+        int running = 0;
+        
+        while (running > 0 || !ready.isEmpty()) {
+            // Start everything the limits allow, in file order
+            for (int i = 0; i < ready.size() && running < threads; i++) {
+                Job job = ready.get(i);
+                String group = job.getGroup();
+                int inGroup = (group == null || !groupsRunning.containsKey(group)) ? 0 : groupsRunning.get(group);
+                if (portsBusy.contains(job.getComPort())) continue;
+                if (group != null && inGroup >= graph.getGroupLimit(group)) continue;
+                ready.remove(i--);
+                portsBusy.add(job.getComPort());
+                if (group != null) groupsRunning.put(group, inGroup + 1);
+                completion.submit(new Session(job, (System.nanoTime() - start) / 1000000));
+                running++;
+            }
+            if (running == 0) break;
+            
+            Result result;
+            try {
+                result = completion.take().get();
+            } catch (InterruptedException | ExecutionException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+                pool.shutdownNow();
+                return false;
+            }
+            running--;
+            Job job = result.job;
+            results.put(job, result);
+            portsBusy.remove(job.getComPort());
+            if (job.getGroup() != null) groupsRunning.put(job.getGroup(), groupsRunning.get(job.getGroup()) - 1);
+            if (OK.equals(result.status)) {
+                for (Job dependent : job.getDependents()) {
+                    int left = waiting.get(dependent) - 1;
+                    waiting.put(dependent, left);
+                    if (left == 0) ready.add(dependent);
+                }
+            } else {
+                skipDependents(job);
+            }
+        }
+        pool.shutdown();
+        
+        TAsyncLogger.getLogger().flush();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Graph summary:");
+        boolean success = true;
+        for (Job job : jobs) {
+            Result result = results.get(job);
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, result);
+            success &= OK.equals(result.status);
+        }
+        logCriticalPath(jobs, (System.nanoTime() - start) / 1000000);
+        return success;
+    }
+    
+    private void skipDependents(Job failed) {
+        for (Job dependent : failed.getDependents()) {
+            if (results.containsKey(dependent)) continue;
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, "Skipping ", dependent.getName(), ", ", failed.getName(), " did not succeed.");
+            results.put(dependent, new Result(dependent, SKIPPED, 0, 0));
+            skipDependents(dependent);
+        }
+    }
+    
+    /**
+     * The critical path ends at the job that finished last and follows, at
+     * each step, the dependency that finished last.
+     */
+    private void logCriticalPath(List<Job> jobs, long total) {
+        Job last = null;
+        for (Job job : jobs) {
+            Result result = results.get(job);
+            if (!SKIPPED.equals(result.status) && (last == null || result.end() > results.get(last).end())) last = job;
+        }
+        List<String> path = new ArrayList<>();
+        long critical = 0;
+        while (last != null) {
+            path.add(0, last.getName());
+            critical += results.get(last).millis;
+            Job previous = null;
+            for (Job dependency : last.getDependencies()) {
+                if (previous == null || results.get(dependency).end() > results.get(previous).end()) previous = dependency;
+            }
+            last = previous;
+        }
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Critical path: ", String.join(" -> ", path), " (", critical, "(ms) of ", total, "(ms) total)");
+    }
+    
+    private class Session implements Callable<Result> {
+        
+        private final Job job;
+        private final long started;
+        
+        Session(Job job, long started) {
+            this.job = job;
+            this.started = started;
+        }
+        
+        @Override
+        public Result call() {
+            long start = System.nanoTime();
+            TPortManager session = new TPortManager(template, job.getComPort(), job.getScript());
+            boolean success;
+            try {
+                success = session.open() && session.run(job.getScript(), job.getVariables());
+            } catch (RuntimeException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, job.getName(), ": ", ex);
+                success = false;
+            } finally {
+                if (session.isConnected()) {
+                    session.settle();
+                    session.disconnect();
+                }
+            }
+            return new Result(job, success ? OK : FAILED, started, (System.nanoTime() - start) / 1000000);
+        }
+    }
+    
+    private static class Result {
+        
+        private final Job job;
+        private final String status;
+        private final long started;
+        private final long millis;
+        
+        Result(Job job, String status, long started, long millis) {
+            this.job = job;
+            this.status = status;
+            this.started = started;
+            this.millis = millis;
+        }
+        
+        long end() {
+            return started + millis;
+        }
+        
+        @Override
+        public String toString() {
+            return job.getName() + "\t" + job.getComPort() + "\t" + status + "\t" + millis + "(ms)\t" + job.getScript().getName();
+        }
+    }
+
+}
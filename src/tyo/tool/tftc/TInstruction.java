@@ -0,0 +1,111 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.regex.Pattern;
+
+/**
+ * A single compiled script step. Immutable and safe to share between
+ * sessions.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TInstruction {
+    
+    public enum Type {
+        SEND, LINEEND, NEWLINE, JSN, WAIT, FILE, RAWFILE, XMODEM, YMODEM, VAR, CTRLD, PROMPT, FLOW, IDEMPOTENT, DRAIN
+    }
+    
+    private final Type type;
+    private final int lineNumber;
+    private final String argument;
+    private final TTemplate template;
+    private final Pattern pattern;
+    private final int number;
+    private final TExtractor extractor;
+    
+    TInstruction(Type type, int lineNumber, String argument, TTemplate template, Pattern pattern, int number) {
+        this(type, lineNumber, argument, template, pattern, number, null);
+    }
+    
+    TInstruction(Type type, int lineNumber, String argument, TTemplate template, Pattern pattern, int number, TExtractor extractor) {
+        this.type = type;
+        this.lineNumber = lineNumber;
+        this.argument = argument;
+        this.template = template;
+        this.pattern = pattern;
+        this.number = number;
+        this.extractor = extractor;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * @return the line of the script this step was compiled from
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+    
+    /**
+     * @return the raw argument: the line end, JSN flag, VAR name or prompt
+     */
+    public String getArgument() {
+        return argument;
+    }
+    
+    /**
+     * @return the text to send, the path of the file to send, or the VAR
+     * value or command
+     */
+    public TTemplate getTemplate() {
+        return template;
+    }
+    
+    /**
+     * @return the PROMPT pattern
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+    
+    /**
+     * @return the WAIT time, the RAWFILE chunk size (0 for the default), 1
+     * for a VAR capturing a command's response, the FLOW mode, 1 to begin or
+     * 0 to end an IDEMPOTENT section, or the DRAIN idle window (0 for the
+     * default)
+     */
+    public int getNumber() {
+        return number;
+    }
+    
+    /**
+     * @return the extractor applied to a VAR command's response, or null to
+     * capture all of it
+     */
+    public TExtractor getExtractor() {
+        return extractor;
+    }
+    
+}
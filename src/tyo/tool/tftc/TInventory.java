@@ -0,0 +1,251 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads device rows from a CSV file with a header line, or from a JSONL file
+ * of flat objects, one row at a time so the file can be any size. Arrays of
+ * plain values are joined with commas.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TInventory implements Closeable {
+    
+    public static final String PORT = "port";
+    
+    private final File file;
+    private final BufferedReader reader;
+    private final boolean jsonl;
+    private List<String> header;
+    private int lineNumber = 0;
+    private String next;
+    
+    public TInventory(File file) throws IOException {
+        this.file = file;
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+        this.jsonl = file.getName().toLowerCase().matches(".*\\.(jsonl|ndjson)$");
+        if (!jsonl) {
+            String line = readLine();
+            if (line == null) throw new IOException(file.getName() + " has no header line.");
+            header = parseCsv(line);
+            if (!header.contains(PORT)) throw new IOException(file.getName() + " has no \"" + PORT + "\" column.");
+        }
+        next = readLine();
+    }
+    
+    private String readLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.trim().isEmpty()) return line;
+        }
+        return null;
+    }
+    
+    public boolean hasNext() {
+        return next != null;
+    }
+    
+    /**
+     * @return the next row, its column names mapped to its values
+     * @throws IllegalArgumentException if the row cannot be parsed or has no
+     * port; the following rows can still be read
+     */
+    public Map<String, String> next() throws IOException {
+        String line = next;
+        int number = lineNumber;
+        next = readLine();
+        Map<String, String> row;
+        try {
+            row = jsonl ? parseJson(line) : toRow(parseCsv(line));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(file.getName() + ":" + number + ": " + ex.getMessage());
+        }
+        String port = row.get(PORT);
+        if (port == null || port.isEmpty()) throw new IllegalArgumentException(file.getName() + ":" + number + ": the row has no port.");
+        return row;
+    }
+    
+    private Map<String, String> toRow(List<String> values) {
+        if (values.size() != header.size()) {
+            throw new IllegalArgumentException("expected " + header.size() + " columns, found " + values.size() + ".");
+        }
+        Map<String, String> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); i++) row.put(header.get(i), values.get(i));
+        return row;
+    }
+    
+    /**
+     * Splits a CSV line, honouring double quoted fields with "" escapes.
+     */
+    private static List<String> parseCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote.");
+        values.add(value.toString().trim());
+        return values;
+    }
+    
+    private static Map<String, String> parseJson(String line) {
+        JsonCursor json = new JsonCursor(line);
+        Map<String, String> row = new LinkedHashMap<>();
+        json.expect('{');
+        if (!json.consume('}')) {
+            do {
+                String key = json.string();
+                json.expect(':');
+                row.put(key, json.value());
+            } while (json.consume(','));
+            json.expect('}');
+        }
+        json.end();
+        return row;
+    }
+    
+    /**
+     * Just enough JSON for one flat object per line.
+     */
+    private static class JsonCursor {
+        
+        private final String text;
+        private int position = 0;
+        
+        JsonCursor(String text) {
+            this.text = text;
+        }
+        
+        private void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+        }
+        
+        boolean consume(char c) {
+            skipSpace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+        
+        void expect(char c) {
+            if (!consume(c)) throw new IllegalArgumentException("expected '" + c + "' at column " + (position + 1) + ".");
+        }
+        
+        void end() {
+            skipSpace();
+            if (position < text.length()) throw new IllegalArgumentException("unexpected text at column " + (position + 1) + ".");
+        }
+        
+        String value() {
+            skipSpace();
+            if (position >= text.length()) throw new IllegalArgumentException("missing value.");
+            char c = text.charAt(position);
+            if (c == '"') return string();
+            if (c == '[') {
+                position++;
+                StringBuilder joined = new StringBuilder();
+                if (!consume(']')) {
+                    do {
+                        if (joined.length() > 0) joined.append(',');
+                        joined.append(value());
+                    } while (consume(','));
+                    expect(']');
+                }
+                return joined.toString();
+            }
+            if (c == '{') throw new IllegalArgumentException("nested objects are not supported (column " + (position + 1) + ").");
+            int start = position;
+            while (position < text.length() && ",]} \t".indexOf(text.charAt(position)) < 0) position++;
+            String literal = text.substring(start, position);
+            return "null".equals(literal) ? "" : literal;
+        }
+        
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (position >= text.length()) break;
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n':   sb.append('\n'); break;
+                    case 'r':   sb.append('\r'); break;
+                    case 't':   sb.append('\t'); break;
+                    case 'b':   sb.append('\b'); break;
+                    case 'f':   sb.append('\f'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) throw new IllegalArgumentException("bad \\u escape.");
+                        sb.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:    sb.append(escaped); break;
+                }
+            }
+            throw new IllegalArgumentException("unterminated string.");
+        }
+        
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+    
+}
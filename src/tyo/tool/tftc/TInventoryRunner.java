@@ -0,0 +1,167 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one template script against every row of an inventory, each row in
+ * its own session with the row's columns as variables. Rows are read only as
+ * sessions free up, so memory stays flat however long the inventory is, and
+ * each result is appended to the results file as soon as it is known:
+ * <pre>
+ * {"row": 12, "port": "COM7", "status": "OK", "ms": 5310}
+ * </pre>
+ * Rows that name the same port never run at the same time; a row waits for
+ * the earlier row on its port to disconnect before it starts.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TInventoryRunner {
+    
+    private final TPortManager template;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Set<String> portsBusy = new HashSet<>();
+    private PrintWriter results;
+    
+    public TInventoryRunner(TPortManager template) {
+        this.template = template;
+    }
+    
+    /**
+     * Runs every row and logs a count of the results.
+     * 
+     * @return true if every row succeeded
+     */
+    public boolean run() {
+        int threads = Math.max(1, template.getFleetConcurrency());
+        File file = template.getInventory();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Running ", file.getName(), " rows, ", threads, " at a time...");
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Semaphore slots = new Semaphore(threads);
+        int rows = 0;
+        try (
+            TInventory inventory = new TInventory(file);
+            PrintWriter out = openResults();
+        ) {
+            results = out;
+            while (inventory.hasNext()) {
+                final int row = ++rows;
+                final Map<String, String> variables;
+                try {
+                    variables = inventory.next();
+                } catch (IllegalArgumentException ex) {
+                    TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex.getMessage());
+                    record(row, "", false, 0);
+                    continue;
+                }
+                final String comPort = TStartupCommandParser.parseCOMPort(variables.get(TInventory.PORT));
+                if (comPort == null) {
+                    record(row, variables.get(TInventory.PORT), false, 0);
+                    continue;
+                }
+                slots.acquire();
+                synchronized (portsBusy) {
+                    while (portsBusy.contains(comPort)) portsBusy.wait();
+                    portsBusy.add(comPort);
+                }
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runRow(row, comPort, variables);
+                        } finally {
+                            synchronized (portsBusy) {
+                                portsBusy.remove(comPort);
+                                portsBusy.notifyAll();
+                            }
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Inventory: ", ex);
+            pool.shutdownNow();
+            return false;
+        } catch (InterruptedException ex) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        TAsyncLogger.getLogger().flush();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Inventory summary: ", rows, " rows, ", succeeded.get(), " OK, ", failed.get(), " FAILED.");
+        return failed.get() == 0;
+    }
+    
+    private PrintWriter openResults() throws IOException {
+        File file = template.getResults();
+        if (file == null) return null;
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    }
+    
+    private void runRow(int row, String comPort, Map<String, String> variables) {
+        long start = System.nanoTime();
+        boolean success = false;
+        TPortManager session = new TPortManager(template, comPort, template.getScript());
+        try {
+            success = session.open() && session.run(template.getScript(), variables);
+        } catch (RuntimeException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, comPort, ": ", ex);
+        } finally {
+            if (session.isConnected()) {
+                session.settle();
+                session.disconnect();
+            }
+        }
+        record(row, variables.get(TInventory.PORT), success, (System.nanoTime() - start) / 1000000);
+    }
+    
+    private void record(int row, String port, boolean success, long millis) {
+        (success ? succeeded : failed).incrementAndGet();
+        if (results == null) return;
+        synchronized (results) {
+            results.println("{\"row\": " + row + ", \"port\": \"" + port.replace("\\", "\\\\").replace("\"", "\\\"")
+                    + "\", \"status\": \"" + (success ? "OK" : "FAILED") + "\", \"ms\": " + millis + "}");
+            results.flush();
+        }
+    }
+    
+}
@@ -0,0 +1,251 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import tyo.util.TLogger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of jobs, each a script run against a port with its own variables,
+ * that may wait for other jobs to succeed first. Read from a text file:
+ * <pre>
+ * # base config everywhere, then the uplinks, then verify
+ * group access 4
+ * sw1     COM3  base.txt    group=access HOST=sw1
+ * sw2     COM4  base.txt    group=access HOST=sw2
+ * agg1    COM5  uplink.txt  after=sw1,sw2
+ * verify1 COM3  verify.txt  after=agg1
+ * </pre>
+ * "group &lt;name&gt; &lt;limit&gt;" caps how many jobs of a group run at once.
+ * Every other line is a job: name, port, script, then any of
+ * "group=&lt;name&gt;", "after=&lt;job&gt;,..." and NAME=value variables.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TJobGraph {
+    
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Map<String, Integer> groupLimits = new HashMap<>();
+    
+    private TJobGraph() {
+    }
+    
+    /**
+     * @return the graph, or null if it could not be read, has errors or has
+     * a dependency cycle (each problem is logged)
+     */
+    public static TJobGraph load(File file) {
+        TJobGraph graph = new TJobGraph();
+        Map<String, TScript> scripts = new HashMap<>();
+        Map<Job, String[]> dependencies = new HashMap<>();
+        boolean valid = true;
+        int lineNumber = 0;
+        String line;
+        try (
+            InputStream fis = new FileInputStream(file.getPath());
+            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
+            BufferedReader br = new BufferedReader(isr);
+        ) {
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                String where = file.getName() + ":" + lineNumber + ": ";
+                if ("group".equals(fields[0])) {
+                    if (fields.length != 3 || !fields[2].matches("[1-9][0-9]*")) {
+                        TLogger.getLogger().error(where + "Expected \"group <name> <limit>\".");
+                        valid = false;
+                    } else {
+                        graph.groupLimits.put(fields[1], Integer.valueOf(fields[2]));
+                    }
+                    continue;
+                }
+                if (fields.length < 3) {
+                    TLogger.getLogger().error(where + "Expected \"<name> <port> <script> [options]\".");
+                    valid = false;
+                    continue;
+                }
+                if (graph.jobs.containsKey(fields[0])) {
+                    TLogger.getLogger().error(where + "Job \"" + fields[0] + "\" is defined twice.");
+                    valid = false;
+                    continue;
+                }
+                String port = TStartupCommandParser.parseCOMPort(fields[1]);
+                TScript script = scripts.get(fields[2]);
+                if (script == null) {
+                    script = TScriptCompiler.compile(new File(fields[2]));
+                    if (script != null) scripts.put(fields[2], script);
+                }
+                if (port == null || script == null) {
+                    valid = false;
+                    continue;
+                }
+                Job job = new Job(fields[0], port, script);
+                for (int i = 3; i < fields.length; i++) {
+                    int equals = fields[i].indexOf('=');
+                    if (equals < 1) {
+                        TLogger.getLogger().error(where + "Expected NAME=value, not \"" + fields[i] + "\".");
+                        valid = false;
+                        continue;
+                    }
+                    String key = fields[i].substring(0, equals);
+                    String value = fields[i].substring(equals + 1);
+                    switch (key) {
+                        case "group":   job.group = value; break;
+                        case "after":   dependencies.put(job, value.split(",")); break;
+                        default:        job.variables.put(key, value); break;
+                    }
+                }
+                graph.jobs.put(job.name, job);
+            }
+        } catch (IOException ex) {
+            TLogger.getLogger().error("File IO Exception: " + ex);
+            return null;
+        }
+        
+        for (Map.Entry<Job, String[]> entry : dependencies.entrySet()) {
+            for (String name : entry.getValue()) {
+                Job dependency = graph.jobs.get(name);
+                if (dependency == null) {
+                    TLogger.getLogger().error(file.getName() + ": job \"" + entry.getKey().name + "\" waits for unknown job \"" + name + "\".");
+                    valid = false;
+                } else {
+                    entry.getKey().dependencies.add(dependency);
+                    dependency.dependents.add(entry.getKey());
+                }
+            }
+        }
+        for (Job job : graph.jobs.values()) {
+            if (job.group != null && !graph.groupLimits.containsKey(job.group)) graph.groupLimits.put(job.group, Integer.MAX_VALUE);
+        }
+        String cycle = valid ? graph.findCycle() : null;
+        if (cycle != null) {
+            TLogger.getLogger().error(file.getName() + ": dependency cycle through job \"" + cycle + "\".");
+            valid = false;
+        }
+        return valid ? graph : null;
+    }
+    
+    /**
+     * Removes jobs with no remaining dependencies until none are left.
+     * 
+     * @return a job on a cycle, or null if there is none
+     */
+    private String findCycle() {
+        Map<Job, Integer> waiting = new HashMap<>();
+        Deque<Job> ready = new ArrayDeque<>();
+        for (Job job : jobs.values()) {
+            waiting.put(job, job.dependencies.size());
+            if (job.dependencies.isEmpty()) ready.add(job);
+        }
+        while (!ready.isEmpty()) {
+            Job job = ready.poll();
+            waiting.remove(job);
+            for (Job dependent : job.dependents) {
+                int left = waiting.get(dependent) - 1;
+                waiting.put(dependent, left);
+                if (left == 0) ready.add(dependent);
+            }
+        }
+        return waiting.isEmpty() ? null : waiting.keySet().iterator().next().name;
+    }
+    
+    public List<Job> getJobs() {
+        return Collections.unmodifiableList(new ArrayList<>(jobs.values()));
+    }
+    
+    /**
+     * @return the most jobs of the group to run at once
+     */
+    public int getGroupLimit(String group) {
+        Integer limit = groupLimits.get(group);
+        return (limit == null) ? Integer.MAX_VALUE : limit;
+    }
+    
+    /**
+     * One node of the graph.
+     */
+    public static class Job {
+        
+        private final String name;
+        private final String comPort;
+        private final TScript script;
+        private final Map<String, String> variables = new LinkedHashMap<>();
+        private final List<Job> dependencies = new ArrayList<>();
+        private final List<Job> dependents = new ArrayList<>();
+        private String group;
+        
+        Job(String name, String comPort, TScript script) {
+            this.name = name;
+            this.comPort = comPort;
+            this.script = script;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getComPort() {
+            return comPort;
+        }
+        
+        public TScript getScript() {
+            return script;
+        }
+        
+        public Map<String, String> getVariables() {
+            return variables;
+        }
+        
+        public List<Job> getDependencies() {
+            return dependencies;
+        }
+        
+        public List<Job> getDependents() {
+            return dependents;
+        }
+        
+        /**
+         * @return the group, or null if the job has none
+         */
+        public String getGroup() {
+            return group;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,246 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An append-only text journal of a script run, so a run that died part way
+ * can be resumed. One record per line:
+ * <pre>
+ * SCRIPT &lt;name&gt; &lt;instructions&gt;
+ * POS &lt;next instruction&gt;
+ * VAR &lt;name&gt; &lt;value&gt;
+ * LINEEND &lt;value&gt;
+ * JSN &lt;true|false&gt;
+ * DONE
+ * </pre>
+ * Values are escaped with \\, \r, \n, \t and \s for a space. Every record
+ * is flushed as it is written; the last of each kind wins when the journal
+ * is read back. A record is only complete once its line end is written, so
+ * an unterminated last line is what a crash cut short. It is ignored, and
+ * cut off before the resumed run appends to the journal.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TJournal {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final File file;
+    private Writer out;
+    private int position = 0;
+    private final Map<String, String> variables = new LinkedHashMap<>();
+    private String lineEnd;
+    private Boolean jsn;
+    private long complete = 0;
+    
+    private TJournal(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Opens the journal of a script, reading back the checkpoint first when
+     * resuming, or starting a fresh one otherwise.
+     * 
+     * @return the journal, or null if it could not be read or belongs to
+     * another script (logged)
+     */
+    public static TJournal open(File file, TScript script, boolean resume) {
+        TJournal journal = new TJournal(file);
+        boolean append = resume && file.exists();
+        try {
+            if (append) {
+                if (!journal.read(script)) return null;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(journal.complete);
+                }
+            }
+            journal.out = new OutputStreamWriter(new FileOutputStream(file, append), UTF8);
+            if (!append) journal.append("SCRIPT " + escape(script.getName()) + " " + script.getInstructions().size());
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Could not open journal ", file.getPath(), ": ", ex);
+            return null;
+        }
+        if (resume && !append) TAsyncLogger.getLogger().log(TAsyncLogger.WARN, "No journal at ", file.getPath(), ", starting from the top.");
+        return journal;
+    }
+    
+    private boolean read(TScript script) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') end--;
+        complete = end;
+        String[] lines = new String(data, 0, end, UTF8).split("\n", -1);
+        if (end < data.length) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, file.getName(), ":", lines.length, ": ignoring an unfinished record.");
+        }
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isEmpty()) continue;
+            String[] record = line.split(" ", 3);
+            try {
+                switch (record[0]) {
+                    case "SCRIPT":
+                        String expected = escape(script.getName()) + " " + script.getInstructions().size();
+                        if (!line.equals("SCRIPT " + expected)) {
+                            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, file.getName(), ": journal is for \"", (record.length > 1) ? line.substring(7) : "", "\", not \"", expected, "\".");
+                            return false;
+                        }
+                        break;
+                    case "POS":     position = Integer.parseInt(record[1]); break;
+                    case "VAR":     variables.put(unescape(record[1]), (record.length > 2) ? unescape(record[2]) : ""); break;
+                    case "LINEEND": lineEnd = (record.length > 1) ? unescape(record[1]) : ""; break;
+                    case "JSN":     jsn = Boolean.valueOf(record[1]); break;
+                    case "DONE":    position = script.getInstructions().size(); break;
+                    default:        TAsyncLogger.getLogger().log(TAsyncLogger.WARN, file.getName(), ":", i + 1, ": ignoring \"", line, "\"."); break;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.WARN, file.getName(), ":", i + 1, ": ignoring a damaged record.");
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @param position the index of the next instruction to run on resume
+     */
+    public void checkpoint(int position) {
+        this.position = position;
+        append("POS " + position);
+    }
+    
+    public void variable(String name, String value) {
+        variables.put(name, value);
+        append("VAR " + escape(name) + " " + escape(value));
+    }
+    
+    public void lineEnd(String lineEnd) {
+        this.lineEnd = lineEnd;
+        append("LINEEND " + escape(lineEnd));
+    }
+    
+    public void jsn(boolean jsn) {
+        this.jsn = jsn;
+        append("JSN " + jsn);
+    }
+    
+    /**
+     * Marks the run complete, so resuming it does nothing.
+     */
+    public void finish() {
+        append("DONE");
+        close();
+    }
+    
+    /**
+     * Closes the journal as it stands, so a failed run can be resumed.
+     */
+    public void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Journal: ", ex);
+        }
+        out = null;
+    }
+    
+    private void append(String record) {
+        if (out == null) return;
+        try {
+            out.write(record);
+            out.write('\n');
+            out.flush();
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Journal stopped: ", ex);
+            out = null;
+        }
+    }
+    
+    public int getPosition() {
+        return position;
+    }
+    
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+    
+    /**
+     * @return the recorded line end, or null if the script never set one
+     */
+    public String getLineEnd() {
+        return lineEnd;
+    }
+    
+    /**
+     * @return the recorded JSN mode, or null if the script never set it
+     */
+    public Boolean getJSN() {
+        return jsn;
+    }
+    
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':  sb.append("\\\\"); break;
+                case '\r':  sb.append("\\r"); break;
+                case '\n':  sb.append("\\n"); break;
+                case '\t':  sb.append("\\t"); break;
+                case ' ':   sb.append("\\s"); break;
+                default:    sb.append(c); break;
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                sb.append(c);
+                continue;
+            }
+            switch (value.charAt(++i)) {
+                case 'r':   sb.append('\r'); break;
+                case 'n':   sb.append('\n'); break;
+                case 't':   sb.append('\t'); break;
+                case 's':   sb.append(' '); break;
+                default:    sb.append(value.charAt(i)); break;
+            }
+        }
+        return sb.toString();
+    }
+    
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+/**
+ * A fixed-size log-linear histogram of latencies in microseconds, eight
+ * buckets per power of two, so percentiles are within about 6% whatever the
+ * range. Recording never allocates.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TLatencyHistogram {
+    
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int MAX_EXPONENT = 40;
+    
+    private final long[] counts = new long[LINEAR + (MAX_EXPONENT - 3) * (1 << SUB_BITS)];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+    
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[index(micros)]++;
+        count++;
+        sum += micros;
+        if (micros > max) max = micros;
+    }
+    
+    /**
+     * Adds everything recorded in another histogram to this one.
+     */
+    public void add(TLatencyHistogram other) {
+        long[] otherCounts;
+        long otherCount, otherSum, otherMax;
+        // Copied first, so the two locks are never held together
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) counts[i] += otherCounts[i];
+            count += otherCount;
+            sum += otherSum;
+            if (otherMax > max) max = otherMax;
+        }
+    }
+    
+    private static int index(long micros) {
+        if (micros < LINEAR) return (int) micros;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return LINEAR + (exponent - 4) * (1 << SUB_BITS) + sub;
+    }
+    
+    /**
+     * @return the midpoint of the bucket, in microseconds
+     */
+    private static long value(int index) {
+        if (index < LINEAR) return index;
+        int exponent = (index - LINEAR) / (1 << SUB_BITS) + 4;
+        int sub = (index - LINEAR) % (1 << SUB_BITS);
+        long low = (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+        long width = 1L << (exponent - SUB_BITS);
+        return low + width / 2;
+    }
+    
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in microseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) return Math.min(value(i), max);
+        }
+        return max;
+    }
+    
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    /**
+     * @return the total of all latencies, in microseconds
+     */
+    public synchronized long getSum() {
+        return sum;
+    }
+    
+    /**
+     * @return the highest latency, in microseconds
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+    
+}
@@ -0,0 +1,117 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An in-memory transport, addressed as "loop:name". On its own it echoes
+ * everything written back to its listener; created with {@link #pair} the
+ * two ends deliver to each other. Delivery happens on a separate thread, as
+ * it would from a real port.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TLoopbackTransport implements TTransport {
+    
+    public static final String PREFIX = "loop:";
+    
+    private static final byte[] CLOSED = new byte[0];
+    
+    private final String name;
+    private final BlockingQueue<byte[]> inbox = new LinkedBlockingQueue<>();
+    private TLoopbackTransport peer = this;
+    private volatile Listener listener;
+    private volatile boolean open = false;
+    
+    public TLoopbackTransport(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * @return two transports connected to each other
+     */
+    public static TLoopbackTransport[] pair(String name) {
+        TLoopbackTransport a = new TLoopbackTransport(name);
+        TLoopbackTransport b = new TLoopbackTransport(name + "-peer");
+        a.peer = b;
+        b.peer = a;
+        return new TLoopbackTransport[] {a, b};
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void open() {
+        open = true;
+        Thread deliverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliverLoop();
+            }
+        }, name + "-rx");
+        deliverThread.setDaemon(true);
+        deliverThread.start();
+    }
+    
+    private void deliverLoop() {
+        try {
+            byte[] data;
+            while ((data = inbox.take()) != CLOSED) {
+                Listener l = listener;
+                if (l != null) l.dataReceived(data, 0, data.length);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        inbox.add(CLOSED);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (!open) throw new IOException(name + " is not open.");
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        peer.inbox.add(copy);
+    }
+    
+}
@@ -0,0 +1,228 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of every port to &lt;base&gt;.json and, in Prometheus
+ * text format, to &lt;base&gt;.prom, periodically during the run and once more
+ * at exit. Sessions that have disconnected are kept as totals per port.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TMetricsExporter {
+    
+    private static final TMetricsExporter EXPORTER = new TMetricsExporter();
+    
+    private final List<TSessionMetrics> sessions = new CopyOnWriteArrayList<>();
+    private final Map<String, TSessionMetrics> finished = new LinkedHashMap<>();
+    private File base;
+    private ScheduledExecutorService scheduler;
+    
+    private TMetricsExporter() {
+    }
+    
+    public static TMetricsExporter getExporter() {
+        return EXPORTER;
+    }
+    
+    public void register(TSessionMetrics metrics) {
+        sessions.add(metrics);
+    }
+    
+    /**
+     * Folds a closed session into the totals of its port, so a port that is
+     * opened again and again is still exported as one series.
+     */
+    public synchronized void unregister(TSessionMetrics metrics) {
+        if (!sessions.remove(metrics)) return;
+        metrics.close();
+        TSessionMetrics totals = finished.get(metrics.getPort());
+        if (totals == null) {
+            totals = new TSessionMetrics(metrics.getPort());
+            totals.close();
+            finished.put(metrics.getPort(), totals);
+        }
+        totals.add(metrics);
+    }
+    
+    /**
+     * @return one entry per port, its closed sessions added to the open ones
+     */
+    private synchronized Collection<TSessionMetrics> byPort() {
+        Map<String, TSessionMetrics> ports = new LinkedHashMap<>();
+        for (TSessionMetrics m : finished.values()) include(ports, m);
+        for (TSessionMetrics m : sessions) include(ports, m);
+        return ports.values();
+    }
+    
+    private static void include(Map<String, TSessionMetrics> ports, TSessionMetrics m) {
+        TSessionMetrics seen = ports.get(m.getPort());
+        if (seen == null) {
+            ports.put(m.getPort(), m);
+            return;
+        }
+        TSessionMetrics sum = new TSessionMetrics(m.getPort());
+        sum.close();
+        sum.add(seen);
+        sum.add(m);
+        ports.put(m.getPort(), sum);
+    }
+    
+    /**
+     * @param base the output path, without extension
+     * @param interval seconds between exports, or 0 to only export at exit
+     */
+    public synchronized void start(File base, int interval) {
+        this.base = base;
+        if (interval <= 0) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tftc-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                export();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Writes both files, replacing the previous ones.
+     */
+    public synchronized void export() {
+        if (base == null) return;
+        try {
+            write(new File(base.getPath() + ".json"), toJson());
+            write(new File(base.getPath() + ".prom"), toPrometheus());
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Could not write metrics: ", ex);
+        }
+    }
+    
+    private static void write(File file, String content) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, content.getBytes(Charset.forName("UTF-8")));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    String toJson() {
+        Collection<TSessionMetrics> ports = byPort();
+        StringBuilder sb = new StringBuilder("{\"sessions\": [");
+        String separator = "\n";
+        for (TSessionMetrics m : ports) {
+            TLatencyHistogram rtt = m.getRoundTrips();
+            double elapsed = m.getElapsedSeconds();
+            sb.append(separator).append("  {");
+            sb.append("\"port\": \"").append(m.getPort().replace("\\", "\\\\").replace("\"", "\\\"")).append("\", ");
+            sb.append(format("\"elapsedSeconds\": %.3f, ", elapsed));
+            sb.append("\"commands\": ").append(rtt.getCount()).append(", ");
+            sb.append(format("\"roundTripMs\": {\"p50\": %.3f, \"p99\": %.3f, \"max\": %.3f}, ",
+                    rtt.getPercentile(50) / 1e3, rtt.getPercentile(99) / 1e3, rtt.getMax() / 1e3));
+            sb.append("\"txBytes\": ").append(m.getTxBytes()).append(", ");
+            sb.append("\"rxBytes\": ").append(m.getRxBytes()).append(", ");
+            sb.append(format("\"txBytesPerSecond\": %.1f, ", m.getTxBytes() / elapsed));
+            sb.append(format("\"rxBytesPerSecond\": %.1f, ", m.getRxBytes() / elapsed));
+            sb.append(format("\"sleepSeconds\": %.3f, ", m.getSleepSeconds()));
+            sb.append(format("\"waitSeconds\": %.3f, ", m.getWaitSeconds()));
+            sb.append(format("\"writeSeconds\": %.3f, ", m.getWriteSeconds()));
+            sb.append("\"varTimeouts\": ").append(m.getVarTimeouts()).append("}");
+            separator = ",\n";
+        }
+        return sb.append("\n]}\n").toString();
+    }
+    
+    String toPrometheus() {
+        Collection<TSessionMetrics> ports = byPort();
+        StringBuilder sb = new StringBuilder();
+        header(sb, "tftc_command_round_trip_seconds", "summary", "Time from writing a command to the first byte back.");
+        for (TSessionMetrics m : ports) {
+            TLatencyHistogram rtt = m.getRoundTrips();
+            String port = label(m);
+            sb.append(format("tftc_command_round_trip_seconds{%s,quantile=\"0.5\"} %.6f%n", port, rtt.getPercentile(50) / 1e6));
+            sb.append(format("tftc_command_round_trip_seconds{%s,quantile=\"0.99\"} %.6f%n", port, rtt.getPercentile(99) / 1e6));
+            sb.append(format("tftc_command_round_trip_seconds_sum{%s} %.6f%n", port, rtt.getSum() / 1e6));
+            sb.append(format("tftc_command_round_trip_seconds_count{%s} %d%n", port, rtt.getCount()));
+        }
+        header(sb, "tftc_command_round_trip_max_seconds", "gauge", "Slowest command round trip.");
+        for (TSessionMetrics m : ports) {
+            sb.append(format("tftc_command_round_trip_max_seconds{%s} %.6f%n", label(m), m.getRoundTrips().getMax() / 1e6));
+        }
+        counter(sb, "tftc_tx_bytes_total", "Bytes written to the port.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_tx_bytes_total{%s} %d%n", label(m), m.getTxBytes()));
+        counter(sb, "tftc_rx_bytes_total", "Bytes received from the port.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_rx_bytes_total{%s} %d%n", label(m), m.getRxBytes()));
+        header(sb, "tftc_tx_bytes_per_second", "gauge", "Average bytes written per second since the session started.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_tx_bytes_per_second{%s} %.1f%n", label(m), m.getTxBytes() / m.getElapsedSeconds()));
+        header(sb, "tftc_rx_bytes_per_second", "gauge", "Average bytes received per second since the session started.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_rx_bytes_per_second{%s} %.1f%n", label(m), m.getRxBytes() / m.getElapsedSeconds()));
+        counter(sb, "tftc_sleep_seconds_total", "Time spent in write delays and #WAIT.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_sleep_seconds_total{%s} %.6f%n", label(m), m.getSleepSeconds()));
+        counter(sb, "tftc_wait_seconds_total", "Time spent waiting for prompts, echoes and #VAR responses.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_wait_seconds_total{%s} %.6f%n", label(m), m.getWaitSeconds()));
+        counter(sb, "tftc_write_seconds_total", "Time spent writing to the port.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_write_seconds_total{%s} %.6f%n", label(m), m.getWriteSeconds()));
+        counter(sb, "tftc_var_timeouts_total", "#VAR commands that got no response in time.");
+        for (TSessionMetrics m : ports) sb.append(format("tftc_var_timeouts_total{%s} %d%n", label(m), m.getVarTimeouts()));
+        return sb.toString();
+    }
+    
+    private static void counter(StringBuilder sb, String name, String help) {
+        header(sb, name, "counter", help);
+    }
+    
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    
+    private static String label(TSessionMetrics m) {
+        return "port=\"" + m.getPort().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+    
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+    
+}
@@ -0,0 +1,257 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the received data for many patterns at once. Literal patterns are
+ * compiled into one Aho-Corasick automaton that is stepped a byte at a time,
+ * so a pager or confirmation is noticed the moment its last byte arrives,
+ * whether or not a line end follows. Each regex pattern is compiled once and
+ * run on its own over each line, so overlapping rules all fire and each keeps
+ * its own groups. Backreferences are not allowed, since a growing line is
+ * checked again with every chunk. Immutable and shared between sessions; the
+ * per-session state lives in a {@link Cursor}.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TPatternMatcher {
+    
+    public enum Action {
+        /** Writes the rule's text back to the device, e.g. to page on. */
+        SEND,
+        /** Stops the script with an error. */
+        ABORT,
+        /** Lets a prompt or echo paced writer send its next line now. */
+        RELEASE,
+        /** Logs a warning and carries on. */
+        WARN
+    }
+    
+    /**
+     * One pattern and what to do when it is seen.
+     */
+    public static final class Rule {
+        
+        private final String pattern;
+        private final boolean regex;
+        private final Action action;
+        private final String text;
+        
+        public Rule(String pattern, boolean regex, Action action, String text) {
+            this.pattern = pattern;
+            this.regex = regex;
+            this.action = action;
+            this.text = text;
+        }
+        
+        public Action getAction() {
+            return action;
+        }
+        
+        /**
+         * @return the text to SEND, or null
+         */
+        public String getText() {
+            return text;
+        }
+        
+        @Override
+        public String toString() {
+            return regex ? "/" + pattern + "/" : "\"" + pattern + "\"";
+        }
+    }
+    
+    private static final int ALPHABET = 256;
+    
+    private final List<Rule> rules;
+    private final int[][] next;
+    private final int[][] matches;
+    private final Pattern[] regexes;
+    private final int[] regexRules;
+    
+    /**
+     * @throws java.util.regex.PatternSyntaxException if a regex is invalid
+     * @throws IllegalArgumentException if a regex has a backreference
+     */
+    public TPatternMatcher(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        
+        // Build the trie of the literals
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> found = new ArrayList<>();
+        trie.add(newState());
+        found.add(new ArrayList<Integer>());
+        List<Pattern> compiled = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            if (rule.regex) {
+                if (hasBackreference(rule.pattern)) {
+                    throw new IllegalArgumentException("Backreferences are not supported: " + rule);
+                }
+                compiled.add(Pattern.compile(rule.pattern));
+                owners.add(r);
+                continue;
+            }
+            // Literals are matched as the UTF-8 the script was written in
+            int state = 0;
+            for (byte b : rule.pattern.getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xFF;
+                if (trie.get(state)[c] <= 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState());
+                    found.add(new ArrayList<Integer>());
+                }
+                state = trie.get(state)[c];
+            }
+            found.get(state).add(r);
+        }
+        
+        // Fill in the failure transitions breadth first, turning the trie
+        // into a DFA with one lookup per byte
+        int[] fail = new int[trie.size()];
+        int[] queue = new int[trie.size()];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = trie.get(0)[c];
+            if (child > 0) {
+                fail[child] = 0;
+                queue[tail++] = child;
+            } else {
+                trie.get(0)[c] = 0;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            found.get(state).addAll(found.get(fail[state]));
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = trie.get(state)[c];
+                if (child > 0) {
+                    fail[child] = trie.get(fail[state])[c];
+                    queue[tail++] = child;
+                } else {
+                    trie.get(state)[c] = trie.get(fail[state])[c];
+                }
+            }
+        }
+        
+        next = trie.toArray(new int[trie.size()][]);
+        matches = new int[found.size()][];
+        for (int s = 0; s < found.size(); s++) {
+            matches[s] = new int[found.get(s).size()];
+            for (int i = 0; i < matches[s].length; i++) matches[s][i] = found.get(s).get(i);
+        }
+        regexes = compiled.toArray(new Pattern[compiled.size()]);
+        regexRules = new int[owners.size()];
+        for (int i = 0; i < regexRules.length; i++) regexRules[i] = owners.get(i);
+    }
+    
+    /**
+     * Looks for a numbered (\1) or named (\k&lt;name&gt;) backreference,
+     * skipping escaped backslashes and \Q...\E quotes.
+     */
+    static boolean hasBackreference(String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) != '\\') continue;
+            char c = regex.charAt(++i);
+            if ((c >= '1' && c <= '9') || c == 'k') return true;
+            if (c == 'Q') {
+                int end = regex.indexOf("\\E", i);
+                if (end < 0) return false;
+                i = end + 1;
+            }
+        }
+        return false;
+    }
+    
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+    
+    public boolean hasRegex() {
+        return regexes.length > 0;
+    }
+    
+    public Cursor cursor(Listener listener) {
+        return new Cursor(listener);
+    }
+    
+    /**
+     * Told about every pattern seen.
+     */
+    public interface Listener {
+        void matched(Rule rule);
+    }
+    
+    /**
+     * The matching state of one session. Fed only from the RX thread.
+     */
+    public final class Cursor {
+        
+        private final Listener listener;
+        private final long[] lineFired = new long[regexes.length];
+        private int state = 0;
+        
+        private Cursor(Listener listener) {
+            this.listener = listener;
+            Arrays.fill(lineFired, -1);
+        }
+        
+        /**
+         * Steps the literal automaton over received bytes.
+         */
+        public void feed(byte[] data, int offset, int length) {
+            int s = state;
+            for (int i = offset; i < offset + length; i++) {
+                s = next[s][data[i] & 0xFF];
+                for (int r : matches[s]) listener.matched(rules.get(r));
+            }
+            state = s;
+        }
+        
+        /**
+         * Runs the regex rules over a line, complete or not. Each rule fires
+         * at most once per line, however often a growing line is checked.
+         * 
+         * @param position where the line starts in the stream
+         */
+        public void matchLine(String line, long position) {
+            for (int i = 0; i < regexes.length; i++) {
+                if (lineFired[i] == position || !regexes[i].matcher(line).find()) continue;
+                lineFired[i] = position;
+                listener.matched(rules.get(regexRules[i]));
+            }
+        }
+        
+    }
+    
+}
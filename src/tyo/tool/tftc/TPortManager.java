@@ -20,12 +20,12 @@
 */
 package tyo.tool.tftc;
 
-import tyo.util.TLogger;
 import java.io.File;
-import jssc.SerialPort;
-import jssc.SerialPortException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 import org.apache.commons.cli.Options;
-import static tyo.tool.tftc.Main.exit;
 
 /**
  *
@@ -34,65 +34,256 @@ import static tyo.tool.tftc.Main.exit;
  */
 public class TPortManager {
     
-    private SerialPort serialPort;
+    private TTransport transport;
     private final Options options = new Options();
-    private TPortWriter portWriter;
+    private volatile TPortWriter portWriter;
     private TPortReader portReader;
+    private TSessionMetrics metrics;
     private final TStartupCommandParser getParserUtil = new TStartupCommandParser(this);
     
     private int baudRate;
+    private boolean autobaud;
     private int dataBits;
     private int stopBits;
     private int parity;
+    private int flowControl = TTransport.FLOW_NONE;
     private int writeDelay;
+    private int lineTimeout = 5000;
+    private int responseTimeout = 5000;
+    private int idleWindow = 250;
+    private int chunkSize = 4096;
+    private int chunkDelay = 0;
+    private int windowSize = 256;
+    private String pacing = TPortWriter.PACE_FIXED;
+    private Pattern prompt = Pattern.compile("[>#$%]\\s*$");
+    private String charset = TCodec.UTF8;
+    private TCodec codec;
     private String comPort;
-    private File file;
+    private TScript script;
+    private File transcript;
+    private File journalFile;
+    private boolean resume;
+    private TJournal journal;
+    private int fleetConcurrency;
+    private int daemonPort;
+    private TJobGraph jobGraph;
+    private File inventory;
+    private File results;
+    private boolean discover;
+    private String probe = "\r";
+    private int discoverDeadline = 30;
+    private final Map<String, TScript> fleet = new LinkedHashMap<>();
     
     public TPortManager(Main main) {
         initialize();
     }
+    
+    /**
+     * Creates a session for a single port of a fleet run, copying the serial
+     * settings of the given template.
+     * 
+     * @param template the manager holding the parsed command line settings
+     * @param comPort the port this session connects to
+     * @param script the script this session writes
+     */
+    public TPortManager(TPortManager template, String comPort, TScript script) {
+        this.baudRate = template.baudRate;
+        this.autobaud = template.autobaud;
+        this.dataBits = template.dataBits;
+        this.stopBits = template.stopBits;
+        this.parity = template.parity;
+        this.flowControl = template.flowControl;
+        this.writeDelay = template.writeDelay;
+        this.lineTimeout = template.lineTimeout;
+        this.responseTimeout = template.responseTimeout;
+        this.idleWindow = template.idleWindow;
+        this.chunkSize = template.chunkSize;
+        this.chunkDelay = template.chunkDelay;
+        this.windowSize = template.windowSize;
+        this.pacing = template.pacing;
+        this.prompt = template.prompt;
+        this.charset = template.charset;
+        this.probe = template.probe;
+        this.comPort = comPort;
+        this.script = script;
+        if (template.transcript != null) {
+            this.transcript = new File(template.transcript.getPath() + "." + comPort.replaceAll("[^A-Za-z0-9]+", "_"));
+        }
+        if (template.journalFile != null) {
+            this.journalFile = new File(template.journalFile.getPath() + "." + comPort.replaceAll("[^A-Za-z0-9]+", "_"));
+        }
+        this.resume = template.resume;
+    }
 
     private void initialize() {
         options.addOption("help", false, "show help.");
         options.addOption("version", false, "show version info.");
         options.addOption("list", false, "List the available COM ports.");
         options.addOption("b", "baudrate", true, "Set the baud-rate to <arg>.");
+        options.addOption("autobaud", false, "Probe serial ports from 921600 down and use the fastest rate that answers sanely (-b is the fallback).");
         options.addOption("d", "databits", true, "Set the data-bits to <arg>.");
         options.addOption("s", "stopbits", true, "set the stop-bits to <arg>.");
         options.addOption("p", "parity", true, "Set the parity-bits to <arg>.");
+        options.addOption("flow", true, "Use \"rtscts\" or \"xonxoff\" flow control on the port (default: none).");
         options.addOption("w", "writerate", true, "Set the rate in which the commands are written (in milliseconds).");
-        options.addOption("c", "comport", true, "Connect to COM <arg>.");
+        options.addOption("c", "comport", true, "Connect to COM <arg>, \"tcp://host:port\", \"pty:/dev/pts/N\", \"loop:name\" or a discovered \"@device\".");
         options.addOption("f", "file", true, "UTF-8 file containing a list of commands to execute.");
+        options.addOption("pace", true, "Pace the writer by \"fixed\" delay, device \"prompt\", line \"echo\", \"stream\" with flow control or a sliding \"window\" (default: fixed).");
+        options.addOption("window", true, "Most bytes written but not yet echoed or sent in window pacing mode (default: 256).");
+        options.addOption("charset", true, "Decode and encode text on the port as charset <arg>, or \"raw\" to pass bytes through as they are (default: UTF-8). #ON literals are always matched as UTF-8.");
+        options.addOption("prompt", true, "Regex matching the device prompt in prompt pacing mode.");
+        options.addOption("t", "linetimeout", true, "Longest wait for the prompt or echo before sending the next line (in milliseconds).");
+        options.addOption("r", "responsetimeout", true, "Longest wait for the response to a #VAR [command] (in milliseconds).");
+        options.addOption("idle", true, "The device is done once it has sent nothing for <arg> milliseconds, at exit and on #DRAIN (default: 250).");
+        options.addOption("chunk", true, "Send #FILE ... | RAW files in chunks of <arg> bytes (default: 4096).");
+        options.addOption("chunkdelay", true, "Pause <arg> milliseconds between raw file chunks (default: 0).");
+        options.addOption("loglevel", true, "Only log messages at or above log, info, warn, error or fatal (default: log).");
+        options.addOption("transcript", true, "Record everything sent and received to the binary file <arg> (suffixed with the port in fleet mode).");
+        options.addOption("journal", true, "Checkpoint the run to the file <arg> so it can be resumed (suffixed with the port in fleet mode).");
+        options.addOption("resume", false, "Continue from the checkpoint in the -journal file instead of the top of the script.");
+        options.addOption("ports", true, "Run the file against every COM port in the comma separated list <arg> at the same time.");
+        options.addOption("m", "map", true, "File mapping COM ports to scripts, one \"<port> <file>\" pair per line.");
+        options.addOption("j", "jobs", true, "Run at most <arg> ports or jobs at the same time (fleet and graph mode).");
+        options.addOption("graph", true, "Run the job graph file <arg> of \"<job> <port> <script> [group=..] [after=..] [VAR=..]\" lines.");
+        options.addOption("inventory", true, "Run the -f template once per row of the CSV or JSONL file <arg>; its \"port\" column picks the port.");
+        options.addOption("results", true, "Write one JSON line per inventory row to the file <arg> as each finishes.");
+        options.addOption("discover", false, "Probe every serial port (or the -ports list) at once, fingerprint what answers and save it to the -devices file.");
+        options.addOption("devices", true, "The device map written by -discover; \"@name\" then works anywhere a port does (default: " + TDeviceMap.DEFAULT_FILE + ").");
+        options.addOption("probe", true, "Send <arg> to each port when probing its baud rate or discovering, with \\r, \\n and \\t escapes (default: \\r).");
+        options.addOption("deadline", true, "Give up on ports that have not been fingerprinted after <arg> seconds of discovery (default: 30).");
+        options.addOption("daemon", true, "Keep ports open and run \"RUN <port> <file>\" jobs sent to 127.0.0.1:<arg>.");
+        options.addOption("metrics", true, "Write latency and throughput metrics to <arg>.json and <arg>.prom.");
+        options.addOption("metricsinterval", true, "Rewrite the metrics files every <arg> seconds, 0 for only at exit (default: 10).");
+    }
+    
+    /**
+     * Connects to the port and writes the script to it.
+     * 
+     * @return false if the port could not be opened or the script failed
+     */
+    public boolean connect() {
+        return open() && run(script);
     }
     
-    public void connect() {
-        TLogger.getLogger().info("Connecting to " + comPort + "...");
-        serialPort = new SerialPort(comPort);
+    /**
+     * Connects to the port without writing anything yet.
+     * 
+     * @return false if the port could not be opened
+     */
+    public boolean open() {
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Connecting to ", comPort, "...");
+        metrics = new TSessionMetrics(comPort);
+        codec = TCodec.forName(charset);
+        TMetricsExporter.getExporter().register(metrics);
+        if (autobaud && isSerialPort()) {
+            int rate = probeBaudRate();
+            if (rate > 0) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Locking ", comPort, " to ", rate, " baud.");
+                baudRate = rate;
+            } else {
+                TAsyncLogger.getLogger().log(TAsyncLogger.WARN, "No baud rate answered sanely on ", comPort, ", keeping ", baudRate, ".");
+            }
+        }
+        transport = createTransport();
         portWriter = new TPortWriter(this);
-        portReader = new TPortReader(this, serialPort);
+        portReader = new TPortReader(this, transport);
+        transport.setListener(portReader);
         try {
-            serialPort.openPort();
-            serialPort.setParams(baudRate, dataBits, stopBits, parity);
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().fatal("The port \"" + comPort + "\" is either unavailable, or does not exist.");
-            TLogger.getLogger().info("For a list of available ports, run TFTC with the \"-l\" flag.");
-            exit(1);
+            transport.open();
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.FATAL, "The port \"", comPort, "\" is either unavailable, or does not exist.");
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "For a list of available ports, run TFTC with the \"-l\" flag.");
+            TMetricsExporter.getExporter().unregister(metrics);
+            return false;
         }
-        try {
-            serialPort.addEventListener(portReader, SerialPort.MASK_RXCHAR);
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().fatal(ex);
+        return true;
+    }
+    
+    /**
+     * Writes a script to the open port, starting from a fresh writer so no
+     * variables or settings carry over from an earlier script.
+     * 
+     * @return false if the script failed
+     */
+    public boolean run(TScript script) {
+        return run(script, null);
+    }
+    
+    /**
+     * @param variables values for the script's [VAR] tags, or null
+     */
+    public boolean run(TScript script, Map<String, String> variables) {
+        journal = null;
+        if (journalFile != null) {
+            journal = TJournal.open(journalFile, script, resume);
+            if (journal == null) return false;
         }
-        portWriter.writeFileToSerial(serialPort, writeDelay, file);
+        portWriter = new TPortWriter(this);
+        if (variables != null) portWriter.setVariables(variables);
+        return portWriter.writeFileToSerial(transport, writeDelay, script);
+    }
+    
+    /**
+     * @return the fastest rate a serial port answered sanely at, 0 if none
+     * did, or the set rate for any other kind of port
+     */
+    int probeBaudRate() {
+        if (!isSerialPort()) return baudRate;
+        return TAutoBaud.probe(comPort, dataBits, stopBits, parity, prompt, getCodec().encode(probe));
+    }
+    
+    private boolean isSerialPort() {
+        return !comPort.startsWith(TSocketTransport.PREFIX)
+                && !comPort.startsWith(TPtyTransport.PREFIX)
+                && !comPort.startsWith(TLoopbackTransport.PREFIX);
+    }
+    
+    private TTransport createTransport() {
+        TTransport port = createPortTransport();
+        if (transcript != null) port = new TTranscriptTransport(port, transcript);
+        return new TMeteredTransport(port, metrics);
+    }
+    
+    /**
+     * @return an unopened transport for the port, without the transcript and
+     * metrics of a session
+     */
+    TTransport createPortTransport() {
+        TTransport port;
+        if (comPort.startsWith(TSocketTransport.PREFIX)) {
+            port = new TSocketTransport(comPort);
+        } else if (comPort.startsWith(TPtyTransport.PREFIX)) {
+            port = new TPtyTransport(comPort);
+        } else if (comPort.startsWith(TLoopbackTransport.PREFIX)) {
+            port = new TLoopbackTransport(comPort);
+        } else {
+            port = new TSerialTransport(comPort, baudRate, dataBits, stopBits, parity);
+        }
+        return port;
+    }
+    
+    /**
+     * Waits until the device has finished answering the last command, for
+     * at most the line timeout.
+     */
+    public void settle() {
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Waiting for ", comPort, " to go quiet...");
+        long start = System.nanoTime();
+        if (!portReader.awaitQuiet(idleWindow, Math.max(idleWindow, lineTimeout))) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, comPort, " was still sending after ", Math.max(idleWindow, lineTimeout), "(ms).");
+        }
+        metrics.waited(System.nanoTime() - start);
     }
     
     public void disconnect() {
-        TLogger.getLogger().info("Disconnecting...");
+        TAsyncLogger.getLogger().flush();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Disconnecting from ", comPort, "...");
+        TMetricsExporter.getExporter().unregister(metrics);
         try {
-            serialPort.closePort();
-            serialPort = null;
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().error(ex);
+            transport.close();
+            transport = null;
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
         }
     }
 
@@ -114,6 +305,13 @@ public class TPortManager {
         this.baudRate = baudRate;
     }
 
+    /**
+     * @param autobaud whether to probe for the fastest working baud rate
+     */
+    public void setAutobaud(boolean autobaud) {
+        this.autobaud = autobaud;
+    }
+
     /**
      * @param dataBits the dataBits to set
      */
@@ -135,6 +333,17 @@ public class TPortManager {
         this.parity = parity;
     }
 
+    /**
+     * @param flowControl one of the TTransport.FLOW_ constants
+     */
+    public void setFlowControl(int flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    public int getFlowControl() {
+        return flowControl;
+    }
+
     /**
      * @param writeDelay the writeDelay to set
      */
@@ -142,6 +351,134 @@ public class TPortManager {
         this.writeDelay = writeDelay;
     }
 
+    /**
+     * @param pacing the pacing mode to set
+     */
+    public void setPacing(String pacing) {
+        this.pacing = pacing;
+    }
+
+    public String getPacing() {
+        return pacing;
+    }
+
+    /**
+     * @param charset the name of the port's charset, or "raw"
+     */
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+    
+    /**
+     * @return this session's codec, fresh for every open
+     */
+    public TCodec getCodec() {
+        if (codec == null) codec = TCodec.forName(charset);
+        return codec;
+    }
+    
+    /**
+     * @param prompt the device prompt to set
+     */
+    public void setPrompt(Pattern prompt) {
+        this.prompt = prompt;
+    }
+
+    public Pattern getPrompt() {
+        return prompt;
+    }
+
+    /**
+     * @param lineTimeout the lineTimeout to set
+     */
+    public void setLineTimeout(int lineTimeout) {
+        this.lineTimeout = lineTimeout;
+    }
+
+    public int getLineTimeout() {
+        return lineTimeout;
+    }
+
+    /**
+     * @param responseTimeout the responseTimeout to set
+     */
+    public void setResponseTimeout(int responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public int getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * @param idleWindow how long the device must be silent to be done
+     */
+    public void setIdleWindow(int idleWindow) {
+        this.idleWindow = idleWindow;
+    }
+
+    public int getIdleWindow() {
+        return idleWindow;
+    }
+
+    /**
+     * @param chunkSize the raw file chunk size to set
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkDelay the pause between raw file chunks to set
+     */
+    public void setChunkDelay(int chunkDelay) {
+        this.chunkDelay = chunkDelay;
+    }
+
+    public int getChunkDelay() {
+        return chunkDelay;
+    }
+
+    /**
+     * @param windowSize the most unacknowledged bytes in window pacing mode
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param transcript the transcript file to set
+     */
+    public void setTranscript(File transcript) {
+        this.transcript = transcript;
+    }
+
+    /**
+     * @param journalFile the checkpoint journal to set
+     */
+    public void setJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public TJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param resume whether to continue from the journal's checkpoint
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
     /**
      * @param comPort the comPort to set
      */
@@ -150,10 +487,131 @@ public class TPortManager {
     }
 
     /**
-     * @param file the file to set
+     * @param script the compiled script to set
+     */
+    public void setScript(TScript script) {
+        this.script = script;
+    }
+
+    /**
+     * @param fleetConcurrency the maximum number of ports to run at once
+     */
+    public void setFleetConcurrency(int fleetConcurrency) {
+        this.fleetConcurrency = fleetConcurrency;
+    }
+
+    public int getFleetConcurrency() {
+        return fleetConcurrency;
+    }
+
+    /**
+     * @param comPort a port to run in fleet mode
+     * @param script the script to write to that port
+     */
+    public void addFleetPort(String comPort, TScript script) {
+        fleet.put(comPort, script);
+    }
+
+    public Map<String, TScript> getFleet() {
+        return fleet;
+    }
+
+    /**
+     * @param daemonPort the loopback port to accept jobs on
+     */
+    public void setDaemonPort(int daemonPort) {
+        this.daemonPort = daemonPort;
+    }
+
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
+    /**
+     * @param jobGraph the job graph to run
+     */
+    public void setJobGraph(TJobGraph jobGraph) {
+        this.jobGraph = jobGraph;
+    }
+
+    public TJobGraph getJobGraph() {
+        return jobGraph;
+    }
+
+    /**
+     * @param inventory the inventory to run the script for
+     */
+    public void setInventory(File inventory) {
+        this.inventory = inventory;
+    }
+
+    public File getInventory() {
+        return inventory;
+    }
+
+    /**
+     * @param results the file to stream inventory results to
+     */
+    public void setResults(File results) {
+        this.results = results;
+    }
+
+    public File getResults() {
+        return results;
+    }
+
+    /**
+     * @param discover whether to fingerprint the ports instead of running a
+     * script
      */
-    public void setFile(File file) {
-        this.file = file;
+    public void setDiscover(boolean discover) {
+        this.discover = discover;
+    }
+
+    public boolean isDiscoverMode() {
+        return discover;
+    }
+
+    /**
+     * @param probe the text sent to each port to fingerprint it
+     */
+    public void setProbe(String probe) {
+        this.probe = probe;
+    }
+
+    public String getProbe() {
+        return probe;
+    }
+
+    /**
+     * @param discoverDeadline the longest discovery may take (in seconds)
+     */
+    public void setDiscoverDeadline(int discoverDeadline) {
+        this.discoverDeadline = discoverDeadline;
+    }
+
+    public int getDiscoverDeadline() {
+        return discoverDeadline;
+    }
+
+    public TScript getScript() {
+        return script;
+    }
+
+    public boolean isDaemonMode() {
+        return daemonPort > 0;
+    }
+
+    public boolean isFleetMode() {
+        return !fleet.isEmpty();
+    }
+
+    public boolean isConnected() {
+        return transport != null && transport.isOpen();
+    }
+
+    public String getComPort() {
+        return comPort;
     }
 
     public TPortWriter getPortWriter() {
@@ -164,4 +622,8 @@ public class TPortManager {
         return portReader;
     }
     
+    public TSessionMetrics getMetrics() {
+        return metrics;
+    }
+    
 }
@@ -20,87 +20,566 @@
 */
 package tyo.tool.tftc;
 
-import tyo.util.TLogger;
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  *
  * @author Jacob Tyo
  * @author jtyo@redapt.com
  */
-public class TPortReader implements SerialPortEventListener {
+public class TPortReader implements TTransport.Listener {
+    
+    private static final int RX_BUFFER_SIZE = 64 * 1024;
+    private static final int PARTIAL_WINDOW = 1024;
+    private static final int ECHO_BACKLOG_SIZE = 64 * 1024;
+    private static final long PROMPT_GRACE = 50;
+    private static final ScheduledExecutorService GRACE_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "tftc-prompt");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     
     private final TPortManager portManager;
-    private final SerialPort serialPort;
+    private final TTransport transport;
+    private final TRingBuffer rxBuffer = new TRingBuffer(RX_BUFFER_SIZE);
+    private final byte[] lineBytes = new byte[rxBuffer.capacity()];
     
-    private boolean resultRequested = false;
-    private String result = "";
-    private String line = "";
+    private final Object requestLock = new Object();
+    private final StringBuilder response = new StringBuilder();
+    private CompletableFuture<String> pendingRequest;
+    private TExtractor.Cursor pendingCursor;
+    private boolean collecting;
+    private long scanPosition = 0;
+    private String lineEnd;
+    private byte[] lineEndBytes;
+    private volatile Pattern pacingPattern;
+    private volatile String pacingEcho;
+    private volatile CountDownLatch pacingLatch = new CountDownLatch(0);
+    private final Object echoLock = new Object();
+    private final TRingBuffer echoBacklog = new TRingBuffer(ECHO_BACKLOG_SIZE);
+    private volatile Consumer<String> lineTap;
+    private volatile long lastReceived = System.nanoTime();
+    private volatile boolean promptShowing;
+    private volatile TPatternMatcher matcher;
+    private volatile TPatternMatcher.Cursor matcherCursor;
+    private volatile String abortReason;
     
-    public TPortReader(TPortManager portManager, SerialPort serialPort) {
+    public TPortReader(TPortManager portManager, TTransport transport) {
         this.portManager = portManager;
-        this.serialPort = serialPort;
+        this.transport = transport;
     }
     
-    public String requestResultOfCommand(String value) {
-        result = "";
-        resultRequested = true;
+    /**
+     * Starts watching the incoming data for the given pattern. Must be called
+     * before the line is written so a fast response is not missed.
+     * 
+     * @param pattern the prompt releasing the next line
+     */
+    public void armPacing(Pattern pattern) {
+        pacingLatch = new CountDownLatch(1);
+        pacingEcho = null;
+        pacingPattern = pattern;
+    }
+    
+    /**
+     * Like {@link #armPacing}, but watches for the echo of a line. The echo
+     * is plain text, so it is looked for as is rather than compiled into a
+     * pattern for every line written.
+     * 
+     * @param line the line whose echo releases the next one
+     */
+    public void armEcho(String line) {
+        pacingLatch = new CountDownLatch(1);
+        pacingPattern = null;
+        pacingEcho = line;
+    }
+    
+    private boolean isPacing() {
+        return pacingPattern != null || pacingEcho != null;
+    }
+    
+    private boolean releasesPacing(String text) {
+        Pattern pattern = pacingPattern;
+        String echo = pacingEcho;
+        return (pattern != null && pattern.matcher(text).find()) || (echo != null && text.contains(echo));
+    }
+    
+    /**
+     * Blocks until the armed pattern has been seen.
+     * 
+     * @param timeout the longest time to wait (in milliseconds)
+     * @return false if the timeout expired first
+     */
+    public boolean awaitPacing(long timeout) {
         try {
-            portManager.getPortWriter().writeStringToSerial(serialPort, value);
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().fatal(ex);
-        }
-        int waitCount = 0;
-        while (true) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                TLogger.getLogger().error(ex);
-            }
-            if (result == null) {
-                if (waitCount >= 5) {
-                    TLogger.getLogger().log("No response recieved...");
-                    return null;
+            return pacingLatch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+            return false;
+        } finally {
+            pacingPattern = null;
+            pacingEcho = null;
+        }
+    }
+    
+    /**
+     * Blocks until the device has stopped sending and its prompt is back at
+     * the end of the output, then for a short grace period of silence, or
+     * for the idle window if that is shorter. A device that takes its time
+     * to answer is waited for, up to the timeout. Without a prompt to look
+     * for, the idle window alone decides.
+     * 
+     * @param idle how long the device must be silent (in milliseconds)
+     * @param timeout the longest time to wait for a slow or chatty device
+     * (in milliseconds)
+     * @return false if the device was still sending when the timeout expired
+     */
+    public boolean awaitQuiet(long idle, long timeout) {
+        boolean prompted = portManager.getPortWriter().getPrompt() != null;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long quiet = (now - lastReceived) / 1000000;
+                long needed;
+                if (promptShowing) {
+                    needed = Math.min(idle, PROMPT_GRACE);
+                } else if (prompted) {
+                    needed = Long.MAX_VALUE;
                 } else {
-                    TLogger.getLogger().log("No response recieved. Waiting...");
-                    waitCount++;
-                    break;
+                    needed = idle;
+                }
+                if (quiet >= needed) return true;
+                long left = timeout - (now - start) / 1000000;
+                // A device that went quiet without showing its prompt is done too
+                if (left <= 0) return quiet >= idle;
+                Thread.sleep(Math.max(1, Math.min(Math.min(needed - quiet, left), 10)));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Starts watching the incoming data for a script's #ON rules, and clears
+     * any earlier abort.
+     * 
+     * @param matcher the rules, or null for none
+     */
+    public void setMatcher(TPatternMatcher matcher) {
+        abortReason = null;
+        this.matcher = matcher;
+        matcherCursor = (matcher == null) ? null : matcher.cursor(new TPatternMatcher.Listener() {
+            @Override
+            public void matched(TPatternMatcher.Rule rule) {
+                fire(rule);
+            }
+        });
+    }
+    
+    /**
+     * @return why an ABORT rule stopped the script, or null
+     */
+    public String getAbortReason() {
+        return abortReason;
+    }
+    
+    private void fire(TPatternMatcher.Rule rule) {
+        switch (rule.getAction()) {
+            case SEND:
+                TAsyncLogger.getLogger().log(TAsyncLogger.INFO, transport.getName(), ": matched ", rule, ", answering.");
+                try {
+                    transport.write(portManager.getCodec().encode(rule.getText()));
+                } catch (IOException ex) {
+                    TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
                 }
-            } else {
                 break;
+            case ABORT:
+                abortReason = "matched " + rule;
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, transport.getName(), ": matched ", rule, ", aborting.");
+                // Wake the writer wherever it is waiting
+                pacingLatch.countDown();
+                synchronized (requestLock) {
+                    if (pendingRequest != null) pendingRequest.complete(null);
+                    pendingRequest = null;
+                    collecting = false;
+                    requestLock.notifyAll();
+                }
+                break;
+            case RELEASE:
+                pacingLatch.countDown();
+                break;
+            default:
+                TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), ": matched ", rule, ".");
+                break;
+        }
+    }
+    
+    /**
+     * @param lineTap also receives every complete line, or null to stop
+     */
+    public void setLineTap(Consumer<String> lineTap) {
+        this.lineTap = lineTap;
+    }
+    
+    /**
+     * Adds bytes about to be written to the echo backlog. They are taken off
+     * again as the device echoes them, in order, skipping whatever other
+     * output is interleaved with the echo.
+     */
+    public void expectEcho(byte[] data) {
+        synchronized (echoLock) {
+            if (echoBacklog.free() < data.length) echoBacklog.clear();
+            echoBacklog.write(data, 0, data.length);
+        }
+    }
+    
+    /**
+     * Blocks until at most the given number of written bytes are still
+     * waiting for their echo.
+     * 
+     * @param timeout the longest time to wait (in milliseconds)
+     * @return false if the timeout expired first
+     */
+    public boolean awaitEchoBacklog(int max, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (echoLock) {
+            long left;
+            while (echoBacklog.size() > max) {
+                if ((left = deadline - System.currentTimeMillis()) <= 0) return false;
+                try {
+                    echoLock.wait(left);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    public void clearEcho() {
+        synchronized (echoLock) {
+            echoBacklog.clear();
+            echoLock.notifyAll();
+        }
+    }
+    
+    private void matchEcho(byte[] data, int offset, int length) {
+        synchronized (echoLock) {
+            if (echoBacklog.size() == 0) return;
+            for (int i = offset; i < offset + length && echoBacklog.size() > 0; i++) {
+                if (echoBacklog.get(echoBacklog.head()) == data[i]) echoBacklog.skip(1);
+            }
+            echoLock.notifyAll();
+        }
+    }
+    
+    /**
+     * Hands the incoming data to another listener, e.g. for a file transfer,
+     * until {@link #resume} is called.
+     */
+    public void suspend(TTransport.Listener listener) {
+        transport.setListener(listener);
+    }
+    
+    /**
+     * Takes the incoming data back, dropping any partial line from before.
+     */
+    public void resume() {
+        rxBuffer.clear();
+        clearEcho();
+        scanPosition = rxBuffer.tail();
+        transport.setListener(this);
+    }
+    
+    /**
+     * Writes a command and collects everything received until the device
+     * prompt comes back. Only one request may be outstanding per port.
+     * 
+     * @param value the command to send
+     * @return a future completed with the response, including the echo and
+     * the prompt; cancelling it stops the collection
+     */
+    public CompletableFuture<String> requestResult(String value) {
+        return requestResult(value, null);
+    }
+    
+    /**
+     * Like {@link #requestResult(String)}, but completes with the value the
+     * extractor picks out as soon as its line arrives, or with null if the
+     * prompt comes back without it. The rest of the response is still read
+     * up to the prompt before the next request is written, so responses
+     * never run into each other.
+     */
+    public CompletableFuture<String> requestResult(String value, TExtractor extractor) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (requestLock) {
+            if (pendingRequest != null && !pendingRequest.isDone()) {
+                future.completeExceptionally(new IllegalStateException(transport.getName() + " already has a request outstanding."));
+                return future;
+            }
+            awaitPrompt();
+            response.setLength(0);
+            collecting = true;
+            pendingRequest = future;
+            pendingCursor = (extractor != null) ? extractor.cursor() : null;
+        }
+        try {
+            portManager.getPortWriter().writeStringToSerial(transport, value);
+        } catch (IOException ex) {
+            synchronized (requestLock) {
+                collecting = false;
+            }
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+    
+    /**
+     * Waits, for at most the response timeout, for the prompt ending the
+     * response to a request that completed early.
+     */
+    private void awaitPrompt() {
+        long deadline = System.currentTimeMillis() + portManager.getResponseTimeout();
+        long left;
+        try {
+            while (collecting && (left = deadline - System.currentTimeMillis()) > 0) requestLock.wait(left);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        collecting = false;
+    }
+    
+    /**
+     * Blocking form of {@link #requestResult} bounded by the response timeout.
+     * 
+     * @return the response, or null if none arrived in time
+     */
+    public String requestResultOfCommand(String value) {
+        return requestResultOfCommand(value, null);
+    }
+    
+    /**
+     * Blocking form of {@link #requestResult(String, TExtractor)} bounded by
+     * the response timeout.
+     * 
+     * @return the extracted value, or null if none arrived in time
+     */
+    public String requestResultOfCommand(String value, TExtractor extractor) {
+        CompletableFuture<String> future = requestResult(value, extractor);
+        long start = System.nanoTime();
+        try {
+            return future.get(portManager.getResponseTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            synchronized (requestLock) {
+                collecting = false;
             }
+            portManager.getMetrics().varTimedOut();
+            TAsyncLogger.getLogger().log(TAsyncLogger.LOG, transport.getName(), ": No response recieved after ", portManager.getResponseTimeout(), "(ms).");
+        } catch (ExecutionException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.FATAL, ex.getCause());
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } finally {
+            portManager.getMetrics().waited(System.nanoTime() - start);
         }
-        resultRequested = false;
-        return result;
+        return null;
     }
     
     @Override
-    public void serialEvent(SerialPortEvent event) {
-        String lineEnd = portManager.getPortWriter().getLineEnd();
+    public void dataReceived(byte[] data, int offset, int length) {
+        lastReceived = System.nanoTime();
+        promptShowing = false;
+        updateLineEnd();
+        matchEcho(data, offset, length);
+        TPatternMatcher.Cursor cursor = matcherCursor;
+        if (cursor != null) cursor.feed(data, offset, length);
+        while (length > 0) {
+            int count = rxBuffer.write(data, offset, length);
+            offset += count;
+            length -= count;
+            scanLines();
+            // A line longer than the buffer is handed on in pieces
+            if (rxBuffer.free() == 0) completeLine(rxBuffer.tail());
+        }
+        if (rxBuffer.size() > 0) matchPartialLine();
+    }
+    
+    /**
+     * Prompts arrive without a line end, so the pacing and request patterns
+     * are also checked against the incomplete line, and whether it shows the
+     * prompt is kept for {@link #awaitQuiet}. Only its tail is decoded, so a
+     * device that never sends a line end does not make each check slower
+     * than the last.
+     * A chunk may just as well end in the middle of a line that happens to
+     * look like a prompt, so a match here only counts once the device has
+     * been quiet for the grace period after it.
+     */
+    private void matchPartialLine() {
+        boolean pacing = isPacing();
+        boolean requested;
+        synchronized (requestLock) {
+            requested = collecting;
+        }
+        TPatternMatcher.Cursor cursor = matcherCursor;
+        TPatternMatcher rules = matcher;
+        boolean regex = cursor != null && rules != null && rules.hasRegex();
         
-        if(event.isRXCHAR()) {
-            String in;
-            try {
-                in = serialPort.readString(event.getEventValue());
-            } catch (SerialPortException ex) {
-                TLogger.getLogger().error(ex);
-                return;
+        String partial = decodeTail(PARTIAL_WINDOW);
+        if (regex) cursor.matchLine(partial, rxBuffer.head());
+        Pattern prompt = portManager.getPortWriter().getPrompt();
+        promptShowing = prompt != null && prompt.matcher(partial).find();
+        CountDownLatch paced = (pacing && releasesPacing(partial)) ? pacingLatch : null;
+        String tail = (requested && promptShowing) ? decodeTail(rxBuffer.size()) : null;
+        if (paced != null || tail != null) confirmWhenQuiet(lastReceived, paced, tail);
+    }
+    
+    /**
+     * Releases the pacing latch and completes the request with the partial
+     * line, unless more data arrives within the grace period. That data gets
+     * its own check.
+     */
+    private void confirmWhenQuiet(final long received, final CountDownLatch paced, final String tail) {
+        GRACE_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (lastReceived != received) return;
+                if (paced != null) paced.countDown();
+                if (tail == null) return;
+                synchronized (requestLock) {
+                    // Checked again under the lock, the lines that arrive now belong after the prompt
+                    if (collecting && lastReceived == received) {
+                        response.append(tail);
+                        if (pendingCursor == null) {
+                            completeRequest(response.toString());
+                        } else {
+                            // The lines before the prompt were all fed as they arrived
+                            completeRequest(tail.isEmpty() ? null : pendingCursor.feed(tail));
+                        }
+                    }
+                }
             }
-            line += in;
-            if (in.endsWith("\n") || line.contains(lineEnd)) {
-                if (resultRequested) {
-                    if (line.contains(lineEnd)) line = line.substring(0, line.indexOf(lineEnd) + lineEnd.length());
-                    TLogger.getLogger().info("Response: \"" + line + "\"");
-                    result += line;
-                } else {
-                    TLogger.getLogger().info(line.trim());
+        }, PROMPT_GRACE, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Ends the response being collected. Must hold the request lock.
+     * 
+     * @param value the result, unless the request already has one
+     */
+    private void completeRequest(String value) {
+        if (pendingRequest != null && !pendingRequest.isDone()) pendingRequest.complete(value);
+        pendingRequest = null;
+        collecting = false;
+        requestLock.notifyAll();
+    }
+    
+    /**
+     * A line end that is not a line break, such as "#LINEEND &gt;", is the
+     * device's prompt, so the line it ends is the last of the response.
+     */
+    private boolean endsResponse(String line) {
+        String end = lineEnd;
+        return !end.isEmpty() && end.indexOf('\r') < 0 && end.indexOf('\n') < 0 && line.endsWith(end);
+    }
+    
+    private void updateLineEnd() {
+        String current = portManager.getPortWriter().getLineEnd();
+        if (current != lineEnd) {
+            lineEnd = current;
+            lineEndBytes = portManager.getCodec().encode(current);
+        }
+    }
+    
+    /**
+     * Scans only the bytes that arrived since the last call for a newline or
+     * the line end sequence.
+     */
+    private void scanLines() {
+        long tail = rxBuffer.tail();
+        for (long i = Math.max(scanPosition, rxBuffer.head()); i < tail; i++) {
+            if (rxBuffer.get(i) == '\n' || endsWithLineEnd(i)) completeLine(i + 1);
+        }
+        scanPosition = tail;
+    }
+    
+    private boolean endsWithLineEnd(long position) {
+        int length = lineEndBytes.length;
+        if (length == 0 || position + 1 - rxBuffer.head() < length) return false;
+        for (int i = 0; i < length; i++) {
+            if (rxBuffer.get(position + 1 - length + i) != lineEndBytes[i]) return false;
+        }
+        return true;
+    }
+    
+    private String decode(int length) {
+        rxBuffer.copy(rxBuffer.head(), lineBytes, 0, length);
+        return portManager.getCodec().decode(lineBytes, 0, length);
+    }
+    
+    /**
+     * The tail is decoded again once its line is complete, so it is only
+     * peeked at here.
+     */
+    private String decodeTail(int max) {
+        int length = Math.min(max, rxBuffer.size());
+        rxBuffer.copy(rxBuffer.tail() - length, lineBytes, 0, length);
+        return portManager.getCodec().peek(lineBytes, 0, length);
+    }
+    
+    private void completeLine(long end) {
+        long start = rxBuffer.head();
+        int length = (int) (end - start);
+        String line = decode(length);
+        rxBuffer.skip(length);
+        TPatternMatcher.Cursor cursor = matcherCursor;
+        if (cursor != null) cursor.matchLine(line, start);
+        
+        if (isPacing() && releasesPacing(line)) pacingLatch.countDown();
+        boolean ended = endsResponse(line);
+        promptShowing = ended;
+        Consumer<String> tap = lineTap;
+        if (tap != null) tap.accept(line);
+        synchronized (requestLock) {
+            if (collecting) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.INFO, transport.getName(), " Response: \"", line, "\"");
+                response.append(line);
+                String extracted = null;
+                if (pendingCursor != null && pendingRequest != null && !pendingRequest.isDone()) {
+                    // No need to keep the writer waiting once the value is in
+                    extracted = pendingCursor.feed(line);
+                    if (extracted != null) pendingRequest.complete(extracted);
+                }
+                Pattern prompt = portManager.getPortWriter().getPrompt();
+                if (ended) {
+                    completeRequest((pendingCursor != null) ? extracted : response.toString());
+                } else if (rxBuffer.size() == 0 && prompt != null && prompt.matcher(line).find()) {
+                    // The prompt followed by a line break, trusted only once the device goes quiet
+                    confirmWhenQuiet(lastReceived, null, "");
                 }
-                line = "";
+                return;
             }
+            pendingRequest = null;
         }
+        TAsyncLogger logger = TAsyncLogger.getLogger();
+        if (logger.isEnabled(TAsyncLogger.INFO)) logger.log(TAsyncLogger.INFO, transport.getName(), " -RX-> ", line.trim());
     }
 
 }
@@ -20,20 +20,20 @@
 */
 package tyo.tool.tftc;
 
-import tyo.util.TLogger;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
-import java.util.regex.Matcher;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
-import jssc.SerialPort;
-import jssc.SerialPortException;
 
 /**
  *
@@ -42,190 +42,381 @@ import jssc.SerialPortException;
  */
 public class TPortWriter {
     
+    public static final String PACE_FIXED = "fixed";
+    public static final String PACE_PROMPT = "prompt";
+    public static final String PACE_ECHO = "echo";
+    public static final String PACE_STREAM = "stream";
+    public static final String PACE_WINDOW = "window";
+    
     private boolean     JuniperSNMode = false;
-    private boolean     parsingOpperand = false;
     private int         customWriteDelay = 0;
     private int         writeDelay;
-    private SerialPort  serialPort;
+    private TTransport  transport;
     private String      lineEnd = "\r\n";
+    private String      pacing;
+    private Pattern     prompt;
+    private boolean     flowControl = false;
+    private boolean     echoTracking = true;
+    private boolean     idempotent = false;
+    private TJournal    journal;
     
     private final TPortManager portManager;
     private final HashMap<String, String> oppArray = new HashMap<>();
     
     public TPortWriter(TPortManager portManager) {
         this.portManager = portManager;
+        this.pacing = portManager.getPacing();
+        this.prompt = portManager.getPrompt();
+    }
+    
+    public void writeStringToSerial(TTransport transport, String line) throws IOException {
+        writeBytesToSerial(transport, line, portManager.getCodec().encode(line + "\r"));
     }
     
-    public void writeStringToSerial(SerialPort serialPort, String line) throws SerialPortException {
-        TLogger.getLogger().log(serialPort.getPortName() + " <-TX- \"" + line + "\"");
-        serialPort.writeBytes((line + "\r").getBytes());//Write data to port
+    private void writeBytesToSerial(TTransport transport, String line, byte[] bytes) throws IOException {
+        TAsyncLogger.getLogger().log(TAsyncLogger.LOG, transport.getName(), " <-TX- \"", line, "\"");
+        portManager.getMetrics().commandSent();
+        transport.write(bytes);//Write data to port
     }
     
-    public void writeFileToSerial(SerialPort serialPort, int writeDelay, File file) {
+    /**
+     * @return false if the script could not be written to the port
+     */
+    public boolean writeFileToSerial(TTransport transport, int writeDelay, TScript script) {
         this.writeDelay = writeDelay;
-        this.serialPort = serialPort;
+        this.transport = transport;
         
-        String line;
-        try (
-            InputStream fis = new FileInputStream(file.getPath());
-            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
-            BufferedReader br = new BufferedReader(isr);
-        ) {
-            while ((line = br.readLine()) != null) {
-                line = parseLineForOpperand(line);
-                try {
-                    Thread.sleep((customWriteDelay > writeDelay) ? customWriteDelay : writeDelay);
-                } catch (InterruptedException ex) {
-                    TLogger.getLogger().error(ex);
+        try {
+            if (portManager.getFlowControl() != TTransport.FLOW_NONE) setFlowControl(portManager.getFlowControl());
+            if (PACE_STREAM.equals(pacing) && !flowControl) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), ": streaming needs flow control, pacing by fixed delay until #FLOW turns it on.");
+            }
+            portManager.getPortReader().setMatcher(script.getMatcher());
+            List<TInstruction> instructions = script.getInstructions();
+            int start = (portManager.getJournal() != null) ? restore(portManager.getJournal(), instructions) : 0;
+            for (int i = start; i < instructions.size(); i++) {
+                TInstruction instruction = instructions.get(i);
+                String line = executeInstruction(instruction);
+                if (isStreaming()) {
+                    // The link's flow control holds the writes back instead
+                    sleep(customWriteDelay);
+                    if (line != null) writeStringToSerial(transport, line);
+                } else if (PACE_WINDOW.equals(pacing)) {
+                    sleep(customWriteDelay);
+                    if (line != null) writeWindowedString(line);
+                } else if (PACE_FIXED.equals(pacing) || PACE_STREAM.equals(pacing)) {
+                    sleep((customWriteDelay > writeDelay) ? customWriteDelay : writeDelay);
+                    if (line != null) writeStringToSerial(transport, line);
+                } else {
+                    sleep(customWriteDelay);
+                    if (line != null) writePacedString(line);
                 }
-                if (!parsingOpperand) writeStringToSerial(serialPort, line);
-            } 
-        } catch (FileNotFoundException ex) {
-            TLogger.getLogger().fatal("File not found: " + ex);
+                if (portManager.getPortReader().getAbortReason() != null) {
+                    TAsyncLogger.getLogger().log(TAsyncLogger.FATAL, transport.getName(), ": script aborted at line ", instruction.getLineNumber(), ", ", portManager.getPortReader().getAbortReason(), ".");
+                    return false;
+                }
+                // An idempotent section is checkpointed as a whole
+                if (journal != null && !idempotent) journal.checkpoint(i + 1);
+            }
+            if (journal != null) journal.finish();
         } catch (IOException ex) {
-            TLogger.getLogger().fatal("File IO Exception: " + ex);
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().fatal("Serial Port Exception: " + ex);
+            TAsyncLogger.getLogger().log(TAsyncLogger.FATAL, "IO Exception: ", ex);
+            return false;
+        } finally {
+            // Left unfinished when the run failed, so it can be resumed
+            if (portManager.getJournal() != null) portManager.getJournal().close();
         }
+        return true;
     }
     
-    private String parseLineForOpperand(String line) {
-        customWriteDelay = 0;
-        parsingOpperand = false;
-
-        // Detect an opperation and execute accordingly
-        if (line.startsWith("#")) { 
-            parsingOpperand = true;
-            String[] args;
-            if (line.contains("FILE") && line.contains("|")) {
-                args = line.replace("#", "").trim().split(" ", 4);
-            } else {
-                args = line.replace("#", "").trim().split(" ", 2);
-            }
-            switch (args[0].toUpperCase()) {
-                case "//":      break;
-                case "LINEEND": parseOppLineEnd(args[1]); break;
-                case "NEWLINE": sendNewLine(); break;
-                case "JSN":     setJSN(args[1]); break;
-                case "WAIT":    parseOppWait(args[1]); break;
-                case "FILE":    parseOppFile(args[1]); break;
-                case "VAR":     parseOppVar(args[1], JuniperSNMode); break;
-                case "CTRLD":   sendCtrlD(); break;
+    /**
+     * Rebuilds the state of a run from its journal: the directives before
+     * the checkpoint that only change settings are run again, then the
+     * recorded variables, line end and JSN mode are put back.
+     * 
+     * @return the index of the first instruction to run
+     */
+    private int restore(TJournal journal, List<TInstruction> instructions) throws IOException {
+        int start = Math.min(journal.getPosition(), instructions.size());
+        for (int i = 0; i < start; i++) {
+            TInstruction instruction = instructions.get(i);
+            switch (instruction.getType()) {
+                case LINEEND: case JSN: case PROMPT: case FLOW:
+                    executeInstruction(instruction);
+                    break;
+                case VAR:
+                    if (instruction.getNumber() == 0) executeInstruction(instruction);
+                    break;
+                default:
+                    break;
             }
+        }
+        for (Map.Entry<String, String> variable : journal.getVariables().entrySet()) {
+            setOppVar(variable.getKey(), variable.getValue());
+        }
+        if (journal.getLineEnd() != null) lineEnd = journal.getLineEnd();
+        if (journal.getJSN() != null) JuniperSNMode = journal.getJSN();
+        if (start == instructions.size()) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, transport.getName(), ": the journal shows the script already finished.");
+        } else if (start > 0) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, transport.getName(), ": resuming at line ", instructions.get(start).getLineNumber(), ".");
+        }
+        this.journal = journal;
+        return start;
+    }
+    
+    /**
+     * Writes a line and waits for the device prompt or the echo of the line
+     * before returning, falling back to the line timeout.
+     */
+    private void writePacedString(String line) throws IOException {
+        TPortReader portReader = portManager.getPortReader();
+        if (PACE_ECHO.equals(pacing)) {
+            portReader.armEcho(line);
         } else {
-            line = fillInVariables(line);
+            portReader.armPacing(prompt);
+        }
+        writeStringToSerial(transport, line);
+        long start = System.nanoTime();
+        boolean released = portReader.awaitPacing(portManager.getLineTimeout());
+        portManager.getMetrics().waited(System.nanoTime() - start);
+        if (!released) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), ": no ", pacing, " after ", portManager.getLineTimeout(), "(ms), continuing.");
         }
-        return line;
     }
 
-    private void parseOppWait(String arg) {
+    /**
+     * Writes a line once the bytes in flight leave room for it: those still
+     * in the port's output buffer, and those the device has not echoed yet.
+     * A device that does not echo is paced by the output buffer alone.
+     */
+    private void writeWindowedString(String line) throws IOException {
+        byte[] bytes = portManager.getCodec().encode(line + "\r");
+        int allowed = Math.max(0, portManager.getWindowSize() - bytes.length);
+        TPortReader portReader = portManager.getPortReader();
+        long start = System.nanoTime();
+        if (echoTracking && !portReader.awaitEchoBacklog(allowed, portManager.getLineTimeout())) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), ": no echo after ", portManager.getLineTimeout(), "(ms), pacing by the output buffer only.");
+            echoTracking = false;
+            portReader.clearEcho();
+        }
+        long deadline = start + portManager.getLineTimeout() * 1000000L;
         try {
-            customWriteDelay = Integer.parseInt(arg);
-            TLogger.getLogger().info("Waiting " + customWriteDelay + "(milliseconds)");
-        } catch (NumberFormatException nfe) {
-            TLogger.getLogger().error("The parameter '" + arg + "' is not a number.");
-        } catch (ArrayIndexOutOfBoundsException oob) {
-            TLogger.getLogger().error("Wait parameter missing!");
+            while (transport.getPendingOutput() > allowed && System.nanoTime() < deadline) Thread.sleep(1);
+        } catch (InterruptedException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+        }
+        portManager.getMetrics().waited(System.nanoTime() - start);
+        if (echoTracking) portReader.expectEcho(bytes);
+        writeBytesToSerial(transport, line, bytes);
+    }
+    
+    private boolean isStreaming() {
+        return flowControl && PACE_STREAM.equals(pacing);
+    }
+
+    private void sleep(int millis) {
+        if (millis <= 0) return;
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+        }
+        portManager.getMetrics().slept(System.nanoTime() - start);
+    }
+    
+    /**
+     * Runs a directive, or fills in the variables of a line to send.
+     * 
+     * @return the line to send, or null for a directive
+     */
+    private String executeInstruction(TInstruction instruction) throws IOException {
+        customWriteDelay = 0;
+        switch (instruction.getType()) {
+            case SEND:      return fillInVariables(instruction.getTemplate());
+            case LINEEND:   parseOppLineEnd(instruction.getArgument()); break;
+            case NEWLINE:   sendNewLine(); break;
+            case JSN:       setJSN(instruction.getArgument()); break;
+            case WAIT:      parseOppWait(instruction.getNumber()); break;
+            case FILE:      parseOppFile(instruction.getTemplate()); break;
+            case RAWFILE:   sendRawFile(instruction); break;
+            case XMODEM:    sendXModem(instruction, false); break;
+            case YMODEM:    sendXModem(instruction, true); break;
+            case VAR:       parseOppVar(instruction, JuniperSNMode); break;
+            case CTRLD:     sendCtrlD(); break;
+            case PROMPT:    parseOppPrompt(instruction); break;
+            case FLOW:      setFlowControl(instruction.getNumber()); break;
+            case IDEMPOTENT: idempotent = (instruction.getNumber() == 1); break;
+            case DRAIN:     drain(instruction.getNumber()); break;
         }
+        return null;
     }
 
-    private void parseOppFile(String arg) {
+    private void parseOppWait(int delay) {
+        customWriteDelay = delay;
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Waiting ", customWriteDelay, "(milliseconds)");
+    }
+
+    private void drain(int idle) {
+        if (idle <= 0) idle = portManager.getIdleWindow();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Draining until quiet for ", idle, "(milliseconds)");
+        long start = System.nanoTime();
+        boolean quiet = portManager.getPortReader().awaitQuiet(idle, Math.max(idle, portManager.getLineTimeout()));
+        portManager.getMetrics().waited(System.nanoTime() - start);
+        if (!quiet) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), ": still sending after ", Math.max(idle, portManager.getLineTimeout()), "(ms), continuing.");
+        }
+    }
+
+    /**
+     * Echoes a file line by line. A file that cannot be read ends the script.
+     */
+    private void parseOppFile(TTemplate path) throws IOException {
         String line;
-        File file = new File(fillInVariables(arg));
+        File file = new File(fillInVariables(path));
         try (
             InputStream fis = new FileInputStream(file.getPath());
             InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
             BufferedReader br = new BufferedReader(isr);
         ) {
             while ((line = br.readLine()) != null) {
-                try {
-                    Thread.sleep(writeDelay);
-                } catch (InterruptedException ex) {
-                    TLogger.getLogger().error(ex);
+                TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Writing contents of file: ", file.getPath());
+                if (PACE_WINDOW.equals(pacing)) {
+                    writeWindowedString(line);
+                    continue;
                 }
-                TLogger.getLogger().info("Writing contents of file: " + file.getPath());
-                writeStringToSerial(serialPort, line);
+                if (!isStreaming()) sleep(writeDelay);
+                writeStringToSerial(transport, line);
             }
-        } catch (FileNotFoundException ex) {
-            TLogger.getLogger().error("File not found: " + ex);
-        } catch (IOException ex) {
-            TLogger.getLogger().error("File IO Exception: " + ex);
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().error(ex);
         }
     }
     
-    private void parseOppVar(String arg, boolean juniperSN) {
-        String key = arg.split(" ", 2)[0];
-        String value = null;
+    /**
+     * Streams a file to the port as-is, reusing a single chunk buffer and
+     * logging once per file rather than once per line. A file that cannot be
+     * read or sent in full ends the script.
+     */
+    private void sendRawFile(TInstruction instruction) throws IOException {
+        File file = new File(fillInVariables(instruction.getTemplate()));
+        int chunkSize = (instruction.getNumber() > 0) ? instruction.getNumber() : portManager.getChunkSize();
+        int chunkDelay = portManager.getChunkDelay();
+        byte[] chunk = new byte[chunkSize];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long sent = 0;
+        long start = System.nanoTime();
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Streaming contents of file: ", file.getPath(), " (", chunkSize, " byte chunks)");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int count;
+            while ((count = channel.read(buffer)) != -1) {
+                if (buffer.hasRemaining() && count > 0) continue;
+                transport.write(chunk, 0, buffer.position());
+                sent += buffer.position();
+                buffer.clear();
+                sleep(chunkDelay);
+            }
+            if (buffer.position() > 0) {
+                transport.write(chunk, 0, buffer.position());
+                sent += buffer.position();
+            }
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Sent ", sent, " bytes in ", millis, "(ms), ", (sent * 1000 / millis), " bytes/s.");
+    }
+    
+    /**
+     * Sends a file with XMODEM or YMODEM. A failed transfer ends the script.
+     */
+    private void sendXModem(TInstruction instruction, boolean batch) throws IOException {
+        File file = new File(fillInVariables(instruction.getTemplate()));
+        TXModem xmodem = new TXModem(transport, batch);
+        TPortReader portReader = portManager.getPortReader();
+        portReader.suspend(xmodem);
         try {
-            value = arg.split(" ", 2)[1];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            TLogger.getLogger().fatal("Missing parameter for VAR call.");
+            xmodem.send(file);
+        } finally {
+            portReader.resume();
         }
+    }
+    
+    private void parseOppVar(TInstruction instruction, boolean juniperSN) {
+        String key = instruction.getArgument();
         // Run if this needs to be executed first
-        if (value.contains("[") && value.contains("]")) {
-            value = value.replaceAll("\\[", "").replaceAll("]", "");
-            String result = portManager.getPortReader().requestResultOfCommand(value);
+        if (instruction.getNumber() == 1) {
+            String value = instruction.getTemplate().toString();
+            TExtractor extractor = instruction.getExtractor();
+            if (extractor == null && juniperSN) extractor = TExtractor.JUNIPER_SERIAL;
+            String result = portManager.getPortReader().requestResultOfCommand(value, extractor);
             if (result != null) {
-                if (juniperSN) {
-                    // This step performs a unique method for slicing Juniper SN strings.
-                    setOppVar(key, result.split("\r\n")[1].split(" ")[0]);
-                } else {
-                    // Normal result
-                    setOppVar(key, result);
-                }
+                setOppVar(key, result);
+            } else if (extractor != null) {
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Extractor ", extractor.getName(), " found nothing in the response");
             } else {
-                TLogger.getLogger().error("Looks like the response was NULL");
+                TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Looks like the response was NULL");
             }
         } else {
-            TLogger.getLogger().error("Variable set mode");
-            setOppVar(key, value);
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Variable set mode");
+            setOppVar(key, instruction.getTemplate().toString());
         }
         
     }
 
+    /**
+     * Sets variables before the script runs, e.g. from a job graph.
+     */
+    public void setVariables(Map<String, String> variables) {
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            setOppVar(variable.getKey(), variable.getValue());
+        }
+    }
+
     private void setOppVar(String key, String value) {
-        TLogger.getLogger().info("Setting VAR: " + key + " <- \"" + value + "\"");
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Setting VAR: ", key, " <- \"", value, "\"");
         oppArray.put(key, value);
+        if (journal != null) journal.variable(key, value);
     }
     
-    private String getOppVar(String key) {
-        String output = oppArray.get(key);
-        if (output == null) return "<NOVAR>";
-        return output;
-    }
-
-    private String fillInVariables(String line) {
+    private String fillInVariables(TTemplate template) {
         // Replace defined variable tags with values
-            if (line.contains("[") && line.contains("]")) {
-                Pattern p = Pattern.compile("\\[(.*?)\\](?!\\s*\\])\\s*", Pattern.DOTALL);
-                Matcher m = p.matcher(line);
-                String after = line;
-                while (m.find()) {
-                    after = after.replace("[" + m.group(1) + "]", getOppVar(m.group(1)));
-                }
-                return after;
-            }
-        return line;
+        return template.render(oppArray);
     }
 
     private void sendCtrlD() {
         try {
-            TLogger.getLogger().info("Sending CTRL+D...");
-            serialPort.writeString("\\cD");
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().warn(ex);
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Sending CTRL+D...");
+            transport.write(portManager.getCodec().encode("\\cD"));
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, ex);
+        }
+    }
+
+    private void setFlowControl(int mode) throws IOException {
+        flowControl = transport.setFlowControl(mode) && mode != TTransport.FLOW_NONE;
+        if (!flowControl && mode != TTransport.FLOW_NONE) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.WARN, transport.getName(), " has no flow control, keeping the write delays.");
+        } else {
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Setting FLOW to => ", (flowControl ? "on" : "off"));
         }
     }
 
     private void setJSN(String arg) {
         JuniperSNMode = Boolean.parseBoolean(arg);
+        if (journal != null) journal.jsn(JuniperSNMode);
     }
 
     private void parseOppLineEnd(String arg) {
-        TLogger.getLogger().info("Setting LINEEND to => \"" + arg + "\"");
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Setting LINEEND to => \"", arg, "\"");
         lineEnd = arg;
+        if (journal != null) journal.lineEnd(lineEnd);
+    }
+    
+    private void parseOppPrompt(TInstruction instruction) {
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Setting PROMPT to => \"", instruction.getArgument(), "\"");
+        prompt = instruction.getPattern();
+    }
+    
+    public Pattern getPrompt() {
+        return prompt;
     }
     
     public String getLineEnd() {
@@ -234,10 +425,10 @@ public class TPortWriter {
 
     private void sendNewLine() {
         try {
-            TLogger.getLogger().info("Sending Newline...");
-            this.serialPort.writeString("\n");
-        } catch (SerialPortException ex) {
-            TLogger.getLogger().error(ex);
+            TAsyncLogger.getLogger().log(TAsyncLogger.INFO, "Sending Newline...");
+            this.transport.write(portManager.getCodec().encode("\n"));
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
         }
     }
 
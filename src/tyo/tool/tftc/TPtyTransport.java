@@ -0,0 +1,77 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One end of a Linux pseudo-terminal pair, addressed as "pty:/dev/pts/N".
+ * The pair is created outside of TFTC, e.g. with
+ * "socat -d -d pty,raw,echo=0 pty,raw,echo=0", and a simulator or another
+ * program is attached to the other end.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TPtyTransport extends TStreamTransport {
+    
+    public static final String PREFIX = "pty:";
+    
+    private final File device;
+    private FileInputStream in;
+    private FileOutputStream out;
+    
+    public TPtyTransport(String name) {
+        super(name);
+        this.device = new File(name.substring(PREFIX.length()));
+    }
+
+    @Override
+    protected void connect() throws IOException {
+        in = new FileInputStream(device);
+        out = new FileOutputStream(device);
+    }
+
+    @Override
+    protected InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    protected OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    protected void disconnect() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+    
+}
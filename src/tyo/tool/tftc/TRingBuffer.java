@@ -0,0 +1,116 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+/**
+ * A fixed-size byte ring buffer addressed by absolute stream positions.
+ * Positions only ever grow, so a reader can remember how far it has scanned
+ * without caring where the data physically sits in the array. Not thread safe.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TRingBuffer {
+    
+    private final byte[] buffer;
+    private final int mask;
+    private long head = 0;
+    private long tail = 0;
+    
+    /**
+     * @param capacity the size of the buffer, rounded up to a power of two
+     */
+    public TRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+    
+    public int capacity() {
+        return buffer.length;
+    }
+    
+    public int size() {
+        return (int) (tail - head);
+    }
+    
+    public int free() {
+        return buffer.length - size();
+    }
+    
+    /**
+     * @return the position of the oldest byte in the buffer
+     */
+    public long head() {
+        return head;
+    }
+    
+    /**
+     * @return the position one past the newest byte in the buffer
+     */
+    public long tail() {
+        return tail;
+    }
+    
+    /**
+     * Copies as much of the source as fits.
+     * 
+     * @return the number of bytes written
+     */
+    public int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, free());
+        int start = (int) (tail & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, first);
+        System.arraycopy(src, offset + first, buffer, 0, count - first);
+        tail += count;
+        return count;
+    }
+    
+    /**
+     * @param position an absolute position between head and tail
+     */
+    public byte get(long position) {
+        return buffer[(int) (position & mask)];
+    }
+    
+    /**
+     * Copies bytes starting at the given position without consuming them.
+     */
+    public void copy(long position, byte[] dst, int offset, int length) {
+        int start = (int) (position & mask);
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(buffer, start, dst, offset, first);
+        System.arraycopy(buffer, 0, dst, offset + first, length - first);
+    }
+    
+    /**
+     * Consumes bytes from the head.
+     */
+    public void skip(int length) {
+        head += Math.min(length, size());
+    }
+    
+    public void clear() {
+        head = tail;
+    }
+    
+}
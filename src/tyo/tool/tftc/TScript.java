@@ -0,0 +1,64 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A compiled TFTC script. Immutable, so one compiled script can be run by any
+ * number of sessions at the same time.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TScript {
+    
+    private final File file;
+    private final List<TInstruction> instructions;
+    private final TPatternMatcher matcher;
+    
+    TScript(File file, List<TInstruction> instructions, TPatternMatcher matcher) {
+        this.file = file;
+        this.instructions = instructions;
+        this.matcher = matcher;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public String getName() {
+        return file.getName();
+    }
+    
+    public List<TInstruction> getInstructions() {
+        return instructions;
+    }
+    
+    /**
+     * @return the script's #ON rules, or null if it has none
+     */
+    public TPatternMatcher getMatcher() {
+        return matcher;
+    }
+    
+}
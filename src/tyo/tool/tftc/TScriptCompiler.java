@@ -0,0 +1,354 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import tyo.util.TLogger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import tyo.tool.tftc.TInstruction.Type;
+
+/**
+ * Turns a script file into a {@link TScript}, checking every directive up
+ * front so mistakes are reported before any port is opened.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TScriptCompiler {
+    
+    private final File file;
+    private final List<TInstruction> instructions = new ArrayList<>();
+    private int lineNumber = 0;
+    private int errors = 0;
+    private int idempotentLine = 0;
+    private final Map<String, TExtractor> extractors = new HashMap<>();
+    private final List<TPatternMatcher.Rule> rules = new ArrayList<>();
+    
+    private TScriptCompiler(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * @return the compiled script, or null if it could not be read or has
+     * errors (each one is logged)
+     */
+    public static TScript compile(File file) {
+        TScriptCompiler compiler = new TScriptCompiler(file);
+        String line;
+        try (
+            InputStream fis = new FileInputStream(file.getPath());
+            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
+            BufferedReader br = new BufferedReader(isr);
+        ) {
+            while ((line = br.readLine()) != null) {
+                compiler.lineNumber++;
+                compiler.compileLine(line);
+            }
+        } catch (IOException ex) {
+            TLogger.getLogger().error("File IO Exception: " + ex);
+            return null;
+        }
+        if (compiler.idempotentLine > 0) {
+            compiler.lineNumber = compiler.idempotentLine;
+            compiler.error("#IDEMPOTENT section is never ended.");
+        }
+        if (compiler.errors > 0) {
+            TLogger.getLogger().error(file.getName() + ": " + compiler.errors + " error(s), nothing was sent.");
+            return null;
+        }
+        TPatternMatcher matcher = compiler.rules.isEmpty() ? null : new TPatternMatcher(compiler.rules);
+        return new TScript(file, Collections.unmodifiableList(compiler.instructions), matcher);
+    }
+    
+    private void compileLine(String line) {
+        if (!line.startsWith("#")) {
+            add(Type.SEND, null, TTemplate.compile(line), null, 0);
+            return;
+        }
+        
+        // Only the directive's own '#' goes, prompts and patterns may hold more
+        String body = line.substring(1).trim();
+        String[] args;
+        if (body.contains("FILE") && body.contains("|")) {
+            args = body.split(" ", 4);
+        } else {
+            args = body.split(" ", 2);
+        }
+        String directive = args[0].toUpperCase();
+        String arg = (args.length > 1) ? args[1] : null;
+        switch (directive) {
+            case "//":      break;
+            case "NEWLINE": add(Type.NEWLINE, null, null, null, 0); break;
+            case "CTRLD":   add(Type.CTRLD, null, null, null, 0); break;
+            case "LINEEND": if (require(directive, arg)) add(Type.LINEEND, arg, null, null, 0); break;
+            case "JSN":     if (require(directive, arg)) add(Type.JSN, arg, null, null, 0); break;
+            case "FILE":    if (require(directive, arg)) compileFile(args); break;
+            case "XMODEM":  if (require(directive, arg)) add(Type.XMODEM, null, TTemplate.compile(arg.trim()), null, 0); break;
+            case "YMODEM":  if (require(directive, arg)) add(Type.YMODEM, null, TTemplate.compile(arg.trim()), null, 0); break;
+            case "WAIT":    if (require(directive, arg)) compileWait(arg); break;
+            case "VAR":     if (require(directive, arg)) compileVar(arg); break;
+            case "PROMPT":  if (require(directive, arg)) compilePrompt(arg); break;
+            case "FLOW":    if (require(directive, arg)) compileFlow(arg); break;
+            case "IDEMPOTENT": compileIdempotent(arg); break;
+            case "DRAIN":   compileDrain(arg); break;
+            case "EXTRACT": if (require(directive, arg)) compileExtract(arg); break;
+            case "ON":      if (require(directive, arg)) compileRule(arg); break;
+            default:        error("Unknown directive '#" + args[0] + "'."); break;
+        }
+    }
+    
+    /**
+     * "#FILE path" echoes the file line by line; "#FILE path | RAW [chunk]"
+     * streams its bytes untouched in chunks of the given size.
+     */
+    private void compileFile(String[] args) {
+        if (args.length < 4 || !"|".equals(args[2])) {
+            add(Type.FILE, null, TTemplate.compile(args[1]), null, 0);
+            return;
+        }
+        String[] options = args[3].trim().split("\\s+");
+        if (!"RAW".equalsIgnoreCase(options[0])) {
+            error("Unknown FILE mode '" + options[0] + "'.");
+            return;
+        }
+        int chunk = 0;
+        if (options.length > 1) {
+            try {
+                chunk = Integer.parseInt(options[1]);
+            } catch (NumberFormatException nfe) {
+                error("The chunk size '" + options[1] + "' is not a number.");
+                return;
+            }
+        }
+        add(Type.RAWFILE, null, TTemplate.compile(args[1]), null, chunk);
+    }
+    
+    private void compileWait(String arg) {
+        try {
+            add(Type.WAIT, null, null, null, Integer.parseInt(arg.trim()));
+        } catch (NumberFormatException nfe) {
+            error("The parameter '" + arg + "' is not a number.");
+        }
+    }
+    
+    /**
+     * "#DRAIN [idle]" waits until the device goes quiet, optionally with its
+     * own idle window in milliseconds.
+     */
+    private void compileDrain(String arg) {
+        if (arg == null || arg.trim().isEmpty()) {
+            add(Type.DRAIN, null, null, null, 0);
+            return;
+        }
+        try {
+            add(Type.DRAIN, null, null, null, Integer.parseInt(arg.trim()));
+        } catch (NumberFormatException nfe) {
+            error("The parameter '" + arg + "' is not a number.");
+        }
+    }
+    
+    /**
+     * "#EXTRACT name REGEX|LINE|KEY spec" declares an extractor for the
+     * "#VAR name [command] | extractor" lines after it.
+     */
+    private void compileExtract(String arg) {
+        String[] fields = arg.trim().split(" ", 3);
+        if (fields.length < 3) {
+            error("Expected EXTRACT <name> <REGEX|LINE|KEY> <spec>.");
+            return;
+        }
+        try {
+            extractors.put(fields[0], TExtractor.compile(fields[0], fields[1], fields[2]));
+        } catch (IllegalArgumentException ex) {
+            error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * "#ON "literal" ACTION ["text"]" or "#ON /regex/ ACTION ["text"]" adds a
+     * rule watched for during the whole script, where ACTION is SEND (the
+     * text), ABORT, RELEASE or WARN. Quoted text takes \r, \n, \t, \" and
+     * \\ escapes.
+     */
+    private void compileRule(String arg) {
+        String rest = arg.trim();
+        char quote = rest.charAt(0);
+        if (quote != '"' && quote != '/') {
+            error("Expected a \"literal\" or /regex/ after ON.");
+            return;
+        }
+        int end = closingQuote(rest, quote);
+        if (end < 0) {
+            error("Unterminated " + ((quote == '"') ? "literal" : "regex") + ".");
+            return;
+        }
+        String pattern = (quote == '"') ? unescape(rest.substring(1, end)) : rest.substring(1, end).replace("\\/", "/");
+        if (pattern.isEmpty()) {
+            error("Empty ON pattern.");
+            return;
+        }
+        String[] tail = rest.substring(end + 1).trim().split(" ", 2);
+        TPatternMatcher.Action action;
+        try {
+            action = TPatternMatcher.Action.valueOf(tail[0].toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            error("Unknown ON action '" + tail[0] + "', expected SEND, ABORT, RELEASE or WARN.");
+            return;
+        }
+        String text = null;
+        if (action == TPatternMatcher.Action.SEND) {
+            String quoted = (tail.length > 1) ? tail[1].trim() : "";
+            if (quoted.length() < 2 || quoted.charAt(0) != '"' || closingQuote(quoted, '"') != quoted.length() - 1) {
+                error("ON ... SEND needs the \"text\" to send.");
+                return;
+            }
+            text = unescape(quoted.substring(1, quoted.length() - 1));
+        }
+        try {
+            if (quote == '/') Pattern.compile(pattern);
+        } catch (PatternSyntaxException ex) {
+            error("Invalid ON regex: " + ex.getDescription());
+            return;
+        }
+        if (quote == '/' && TPatternMatcher.hasBackreference(pattern)) {
+            error("Backreferences are not supported in ON regexes.");
+            return;
+        }
+        rules.add(new TPatternMatcher.Rule(pattern, quote == '/', action, text));
+    }
+    
+    private static int closingQuote(String text, char quote) {
+        for (int i = 1; i < text.length(); i++) {
+            if (text.charAt(i) == '\\') i++;
+            else if (text.charAt(i) == quote) return i;
+        }
+        return -1;
+    }
+    
+    static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                sb.append(c);
+                continue;
+            }
+            switch (text.charAt(++i)) {
+                case 'r':   sb.append('\r'); break;
+                case 'n':   sb.append('\n'); break;
+                case 't':   sb.append('\t'); break;
+                default:    sb.append(text.charAt(i)); break;
+            }
+        }
+        return sb.toString();
+    }
+    
+    private void compileVar(String arg) {
+        String[] pair = arg.split(" ", 2);
+        if (pair.length < 2) {
+            error("Missing parameter for VAR call.");
+            return;
+        }
+        String value = pair[1];
+        if (value.contains("[") && value.contains("]")) {
+            // The bracketed command is sent and its response captured
+            TExtractor extractor = null;
+            int bar = value.indexOf('|', value.lastIndexOf(']'));
+            if (bar >= 0) {
+                String name = value.substring(bar + 1).trim();
+                extractor = extractors.get(name);
+                if (extractor == null) {
+                    error("Unknown extractor '" + name + "', declare it with #EXTRACT first.");
+                    return;
+                }
+                value = value.substring(0, bar).trim();
+            }
+            String command = value.replaceAll("\\[", "").replaceAll("]", "");
+            instructions.add(new TInstruction(Type.VAR, lineNumber, pair[0], TTemplate.compile(command), null, 1, extractor));
+        } else {
+            add(Type.VAR, pair[0], TTemplate.compile(value), null, 0);
+        }
+    }
+    
+    private void compilePrompt(String arg) {
+        try {
+            add(Type.PROMPT, arg, null, Pattern.compile(arg), 0);
+        } catch (PatternSyntaxException ex) {
+            error("Invalid prompt regex: " + ex.getDescription());
+        }
+    }
+    
+    /**
+     * "#IDEMPOTENT" to "#IDEMPOTENT END" marks lines that are safe to send
+     * twice. A resumed run skips the sections finished before the crash and
+     * replays an interrupted one from its start rather than from its middle.
+     */
+    private void compileIdempotent(String arg) {
+        boolean end = arg != null && "END".equalsIgnoreCase(arg.trim());
+        if (arg != null && !arg.trim().isEmpty() && !end) {
+            error("Unknown IDEMPOTENT argument '" + arg.trim() + "', expected END.");
+        } else if (!end && idempotentLine > 0) {
+            error("#IDEMPOTENT sections cannot be nested (opened on line " + idempotentLine + ").");
+        } else if (end && idempotentLine == 0) {
+            error("#IDEMPOTENT END without #IDEMPOTENT.");
+        } else {
+            idempotentLine = end ? 0 : lineNumber;
+            add(Type.IDEMPOTENT, null, null, null, end ? 0 : 1);
+        }
+    }
+    
+    private void compileFlow(String arg) {
+        int mode = TTransport.parseFlowControl(arg);
+        if (mode < 0) {
+            error("Unknown flow control '" + arg.trim() + "', expected NONE, RTSCTS or XONXOFF.");
+            return;
+        }
+        add(Type.FLOW, arg.trim(), null, null, mode);
+    }
+    
+    private boolean require(String directive, String arg) {
+        if (arg != null && !arg.trim().isEmpty()) return true;
+        error("Missing parameter for " + directive + " call.");
+        return false;
+    }
+    
+    private void add(Type type, String argument, TTemplate template, Pattern pattern, int number) {
+        instructions.add(new TInstruction(type, lineNumber, argument, template, pattern, number));
+    }
+    
+    private void error(String message) {
+        errors++;
+        TLogger.getLogger().error(file.getName() + ":" + lineNumber + ": " + message);
+    }
+    
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+/**
+ * A local serial port driven through jSSC.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TSerialTransport implements TTransport, SerialPortEventListener {
+    
+    private final SerialPort serialPort;
+    private int baudRate;
+    private final int dataBits;
+    private final int stopBits;
+    private final int parity;
+    private volatile Listener listener;
+    
+    public TSerialTransport(String comPort, int baudRate, int dataBits, int stopBits, int parity) {
+        this.serialPort = new SerialPort(comPort);
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.stopBits = stopBits;
+        this.parity = parity;
+    }
+
+    @Override
+    public String getName() {
+        return serialPort.getPortName();
+    }
+
+    @Override
+    public void open() throws IOException {
+        try {
+            serialPort.openPort();
+            if (!serialPort.setParams(baudRate, dataBits, stopBits, parity)) {
+                serialPort.closePort();
+                throw new IOException(getName() + " does not support " + baudRate + " baud.");
+            }
+            serialPort.addEventListener(this, SerialPort.MASK_RXCHAR);
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Switches an open port to another baud rate and drops anything still
+     * buffered at the old one.
+     * 
+     * @return false if the port does not support the rate
+     */
+    public boolean setBaudRate(int baudRate) throws IOException {
+        try {
+            if (!serialPort.setParams(baudRate, dataBits, stopBits, parity)) return false;
+            serialPort.purgePort(SerialPort.PURGE_RXCLEAR | SerialPort.PURGE_TXCLEAR);
+            this.baudRate = baudRate;
+            return true;
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public boolean setFlowControl(int mode) throws IOException {
+        int mask;
+        switch (mode) {
+            case FLOW_RTSCTS:   mask = SerialPort.FLOWCONTROL_RTSCTS_IN | SerialPort.FLOWCONTROL_RTSCTS_OUT; break;
+            case FLOW_XONXOFF:  mask = SerialPort.FLOWCONTROL_XONXOFF_IN | SerialPort.FLOWCONTROL_XONXOFF_OUT; break;
+            default:            mask = SerialPort.FLOWCONTROL_NONE; break;
+        }
+        try {
+            return serialPort.setFlowControlMode(mask);
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public int getPendingOutput() throws IOException {
+        try {
+            return serialPort.getOutputBufferBytesCount();
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            serialPort.closePort();
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return serialPort.isOpened();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (offset != 0 || length != data.length) {
+            byte[] slice = new byte[length];
+            System.arraycopy(data, offset, slice, 0, length);
+            data = slice;
+        }
+        try {
+            serialPort.writeBytes(data);
+        } catch (SerialPortException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void serialEvent(SerialPortEvent event) {
+        if (!event.isRXCHAR() || event.getEventValue() <= 0) return;
+        byte[] data;
+        try {
+            data = serialPort.readBytes(event.getEventValue());
+        } catch (SerialPortException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+            return;
+        }
+        Listener l = listener;
+        if (data != null && l != null) l.dataReceived(data, 0, data.length);
+    }
+    
+}
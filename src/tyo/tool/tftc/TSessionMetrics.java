@@ -0,0 +1,146 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for one session: how long commands take to be answered, how many
+ * bytes went each way, and where the writer's time went.
+ * <p>
+ * A command's round trip runs from writing it to the first byte received
+ * after it. Closed sessions can be added together into totals for a port.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TSessionMetrics {
+    
+    private final String port;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = -1;
+    private final AtomicLong addedNanos = new AtomicLong();
+    private final TLatencyHistogram roundTrips = new TLatencyHistogram();
+    private final AtomicLong txBytes = new AtomicLong();
+    private final AtomicLong rxBytes = new AtomicLong();
+    private final AtomicLong sleepNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong varTimeouts = new AtomicLong();
+    private final AtomicLong commandSent = new AtomicLong(-1);
+    
+    public TSessionMetrics(String port) {
+        this.port = port;
+    }
+    
+    public String getPort() {
+        return port;
+    }
+    
+    /**
+     * Starts timing a command's round trip.
+     */
+    public void commandSent() {
+        commandSent.set(System.nanoTime());
+    }
+    
+    public void sent(int bytes, long nanos) {
+        txBytes.addAndGet(bytes);
+        writeNanos.addAndGet(nanos);
+    }
+    
+    public void received(int bytes) {
+        rxBytes.addAndGet(bytes);
+        long sent = commandSent.getAndSet(-1);
+        if (sent >= 0) roundTrips.record(System.nanoTime() - sent);
+    }
+    
+    public void slept(long nanos) {
+        sleepNanos.addAndGet(nanos);
+    }
+    
+    public void waited(long nanos) {
+        waitNanos.addAndGet(nanos);
+    }
+    
+    public void varTimedOut() {
+        varTimeouts.incrementAndGet();
+    }
+    
+    /**
+     * Stops the session's clock.
+     */
+    public void close() {
+        if (endNanos < 0) endNanos = System.nanoTime();
+    }
+    
+    /**
+     * Adds another session's counters and running time to this one.
+     */
+    public void add(TSessionMetrics other) {
+        roundTrips.add(other.roundTrips);
+        txBytes.addAndGet(other.getTxBytes());
+        rxBytes.addAndGet(other.getRxBytes());
+        sleepNanos.addAndGet(other.sleepNanos.get());
+        waitNanos.addAndGet(other.waitNanos.get());
+        writeNanos.addAndGet(other.writeNanos.get());
+        varTimeouts.addAndGet(other.getVarTimeouts());
+        addedNanos.addAndGet(other.getElapsedNanos());
+    }
+    
+    public TLatencyHistogram getRoundTrips() {
+        return roundTrips;
+    }
+    
+    public double getElapsedSeconds() {
+        return getElapsedNanos() / 1e9;
+    }
+    
+    private long getElapsedNanos() {
+        long end = endNanos;
+        return addedNanos.get() + ((end < 0) ? System.nanoTime() : end) - startNanos;
+    }
+    
+    public long getTxBytes() {
+        return txBytes.get();
+    }
+    
+    public long getRxBytes() {
+        return rxBytes.get();
+    }
+    
+    public double getSleepSeconds() {
+        return sleepNanos.get() / 1e9;
+    }
+    
+    public double getWaitSeconds() {
+        return waitNanos.get() / 1e9;
+    }
+    
+    public double getWriteSeconds() {
+        return writeNanos.get() / 1e9;
+    }
+    
+    public long getVarTimeouts() {
+        return varTimeouts.get();
+    }
+    
+}
@@ -0,0 +1,313 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import tyo.util.TLogger;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * A fake switch console for benchmarking pacing and fleet runs without
+ * hardware. It answers commands from a rule file or replays a session
+ * transcript, serving any number of TCP sessions on localhost or a single
+ * session on one end of a pty pair.
+ * <p>
+ * Rule files hold one rule per line, "regex&lt;TAB&gt;latency(ms)&lt;TAB&gt;response",
+ * where the regex must match the whole command and the response may use \r,
+ * \n and \t. The directives "prompt &lt;text&gt;", "echo on|off" and
+ * "latency &lt;ms&gt;" (the default for rules without one) may appear anywhere.
+ * Unmatched commands get "% Invalid input".
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TSimulator {
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private final List<Rule> rules = new ArrayList<>();
+    private byte[] prompt = "switch> ".getBytes(ASCII);
+    private boolean echo = true;
+    private int latency = 0;
+    
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption("help", false, "show help.");
+        options.addOption("port", true, "Serve TCP sessions on localhost:<arg> (default: 2323).");
+        options.addOption("pty", true, "Serve a single session on the pty device <arg> instead.");
+        options.addOption("rules", true, "Answer commands from the rule file <arg>.");
+        options.addOption("replay", true, "Answer commands the way they were answered in the transcript <arg>.");
+        
+        TSimulator simulator = new TSimulator();
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption("help") || (!cmd.hasOption("rules") && !cmd.hasOption("replay"))) {
+                new HelpFormatter().printHelp("TSimulator", options);
+                Main.exit(0);
+            }
+            boolean loaded = cmd.hasOption("rules")
+                    ? simulator.loadRules(new File(cmd.getOptionValue("rules")))
+                    : simulator.loadTranscript(new File(cmd.getOptionValue("replay")));
+            if (!loaded) Main.exit(1);
+            if (cmd.hasOption("pty")) {
+                simulator.servePty(new File(cmd.getOptionValue("pty")));
+            } else {
+                simulator.serveSockets(Integer.parseInt(cmd.getOptionValue("port", "2323")));
+            }
+        } catch (ParseException | NumberFormatException ex) {
+            TLogger.getLogger().error(ex);
+            Main.exit(1);
+        } catch (IOException ex) {
+            TLogger.getLogger().fatal(ex);
+            Main.exit(1);
+        }
+    }
+    
+    /**
+     * @return false if the file could not be read or has errors
+     */
+    public boolean loadRules(File file) {
+        String line;
+        int lineNumber = 0;
+        boolean valid = true;
+        try (
+            InputStream fis = new FileInputStream(file.getPath());
+            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
+            BufferedReader br = new BufferedReader(isr);
+        ) {
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t", 3);
+                try {
+                    if (fields.length == 1) {
+                        parseDirective(line);
+                    } else if (fields.length == 3) {
+                        int delay = fields[1].trim().isEmpty() ? -1 : Integer.parseInt(fields[1].trim());
+                        rules.add(new Rule(Pattern.compile(fields[0]), delay, unescape(fields[2]).getBytes(ASCII)));
+                    } else {
+                        throw new IllegalArgumentException("Expected regex<TAB>latency<TAB>response.");
+                    }
+                } catch (IllegalArgumentException ex) {
+                    TLogger.getLogger().error(file.getName() + ":" + lineNumber + ": " + ex.getMessage());
+                    valid = false;
+                }
+            }
+        } catch (IOException ex) {
+            TLogger.getLogger().error("File IO Exception: " + ex);
+            return false;
+        }
+        TLogger.getLogger().info("Loaded " + rules.size() + " rules from " + file.getName());
+        return valid;
+    }
+    
+    private void parseDirective(String line) {
+        String[] args = line.replaceAll("^\\s+", "").split(" ", 2);
+        String arg = (args.length > 1) ? args[1] : "";
+        switch (args[0].toLowerCase()) {
+            case "prompt":  prompt = unescape(arg).getBytes(ASCII); break;
+            case "echo":    echo = !"off".equalsIgnoreCase(arg.trim()); break;
+            case "latency": latency = Integer.parseInt(arg.trim()); break;
+            default:        throw new IllegalArgumentException("Unknown directive '" + args[0] + "'.");
+        }
+    }
+    
+    /**
+     * Builds one rule per command in the transcript. The recorded output,
+     * echo and prompt included, is replayed as-is after the recorded delay
+     * to its first byte, so echo and the prompt are turned off.
+     * 
+     * @return false if the transcript could not be read
+     */
+    public boolean loadTranscript(File file) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException ex) {
+            TLogger.getLogger().error("File IO Exception: " + ex);
+            return false;
+        }
+        buffer.position(TTranscript.HEADER_SIZE);
+        String command = null;
+        long sent = 0;
+        long firstByte = -1;
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        while (true) {
+            boolean more = buffer.remaining() >= TTranscript.RECORD_HEADER_SIZE && buffer.get(buffer.position()) != TTranscript.END;
+            byte direction = more ? buffer.get() : TTranscript.TX;
+            long nanos = more ? buffer.getLong() : 0;
+            byte[] data = new byte[more ? buffer.getInt() : 0];
+            buffer.get(data);
+            if (direction == TTranscript.RX) {
+                if (firstByte < 0) firstByte = nanos;
+                response.write(data, 0, data.length);
+                continue;
+            }
+            if (command != null) {
+                int delay = (firstByte < 0) ? 0 : (int) ((firstByte - sent) / 1000000);
+                rules.add(new Rule(Pattern.compile(Pattern.quote(command)), delay, response.toByteArray()));
+            }
+            if (!more) break;
+            command = new String(data, ASCII).trim();
+            sent = nanos;
+            firstByte = -1;
+            response.reset();
+        }
+        echo = false;
+        prompt = new byte[0];
+        TLogger.getLogger().info("Loaded " + rules.size() + " responses from " + file.getName());
+        return true;
+    }
+    
+    public void serveSockets(int port) throws IOException {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            TLogger.getLogger().info("Simulating on tcp://localhost:" + server.getLocalPort());
+            while (true) {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (Socket s = socket) {
+                            serve(s.getInputStream(), s.getOutputStream());
+                        } catch (IOException ex) {
+                            TLogger.getLogger().warn("Session ended: " + ex);
+                        }
+                    }
+                });
+            }
+        }
+    }
+    
+    public void servePty(File device) throws IOException {
+        TLogger.getLogger().info("Simulating on " + device.getPath());
+        try (
+            InputStream in = new FileInputStream(device);
+            OutputStream out = new FileOutputStream(device);
+        ) {
+            serve(in, out);
+        }
+    }
+    
+    /**
+     * Runs one console session until the other end goes away.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        ByteArrayOutputStream command = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        boolean lastWasCR = false;
+        out.write(prompt);
+        out.flush();
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                byte b = buffer[i];
+                if (b == '\n' && lastWasCR) {
+                    lastWasCR = false;
+                    continue;
+                }
+                lastWasCR = (b == '\r');
+                if (b == '\r' || b == '\n') {
+                    if (echo) out.write(new byte[] {'\r', '\n'});
+                    respond(new String(command.toByteArray(), ASCII).trim(), out);
+                    command.reset();
+                } else {
+                    if (echo) out.write(b);
+                    command.write(b);
+                }
+            }
+            out.flush();
+        }
+    }
+    
+    private void respond(String command, OutputStream out) throws IOException {
+        if (!command.isEmpty()) {
+            Rule rule = match(command);
+            if (rule == null) {
+                out.write("% Invalid input detected.\r\n".getBytes(ASCII));
+            } else {
+                out.flush();
+                sleep((rule.latency < 0) ? latency : rule.latency);
+                out.write(rule.response);
+            }
+        }
+        out.write(prompt);
+    }
+    
+    private Rule match(String command) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(command).matches()) return rule;
+        }
+        return null;
+    }
+    
+    private static void sleep(int millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static String unescape(String text) {
+        return text.replace("\\r", "\r").replace("\\n", "\n").replace("\\t", "\t");
+    }
+    
+    private static final class Rule {
+        
+        private final Pattern pattern;
+        private final int latency;
+        private final byte[] response;
+        
+        Rule(Pattern pattern, int latency, byte[] response) {
+            this.pattern = pattern;
+            this.latency = latency;
+            this.response = response;
+        }
+    }
+    
+}
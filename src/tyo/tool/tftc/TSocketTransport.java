@@ -0,0 +1,93 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A TCP connection to a network console server or a local simulator,
+ * addressed as "tcp://host:port".
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TSocketTransport extends TStreamTransport {
+    
+    public static final String PREFIX = "tcp://";
+    
+    private final String host;
+    private final int port;
+    private Socket socket;
+    
+    /**
+     * @throws IllegalArgumentException if the name is not "tcp://host:port"
+     */
+    public TSocketTransport(String name) {
+        super(name);
+        this.port = parsePort(name);
+        if (port < 0) throw new IllegalArgumentException("Invalid socket address: " + name);
+        this.host = name.substring(PREFIX.length(), name.lastIndexOf(':'));
+    }
+    
+    /**
+     * @return the port of a "tcp://host:port" name, or -1 if the host is
+     * missing or the port is not a number from 1 to 65535
+     */
+    public static int parsePort(String name) {
+        if (!name.startsWith(PREFIX)) return -1;
+        String address = name.substring(PREFIX.length());
+        int colon = address.lastIndexOf(':');
+        if (colon < 1) return -1;
+        try {
+            int port = Integer.parseInt(address.substring(colon + 1));
+            return (port >= 1 && port <= 65535) ? port : -1;
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    @Override
+    protected void connect() throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), 5000);
+    }
+
+    @Override
+    protected InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    protected OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    protected void disconnect() throws IOException {
+        socket.close();
+    }
+    
+}
@@ -21,7 +21,17 @@
 package tyo.tool.tftc;
 
 import tyo.util.TLogger;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import jssc.SerialPort;
 import jssc.SerialPortList;
 import org.apache.commons.cli.CommandLine;
@@ -67,6 +77,39 @@ public class TStartupCommandParser {
                 Main.exit(0);
             }
             
+            if(cmd.hasOption("loglevel")) {
+                int value = TStartupCommandParser.parseLogLevel(cmd.getOptionValue("loglevel"));
+                TLogger.getLogger().info("Setting log level to => " + cmd.getOptionValue("loglevel"));
+                TAsyncLogger.getLogger().setLevel(value);
+            }
+            
+            if(cmd.hasOption("devices")) {
+                File f = new File(cmd.getOptionValue("devices"));
+                TLogger.getLogger().info("Setting device map to => \"" + f.getPath() + "\"");
+                TDeviceMap.getDeviceMap().setFile(f);
+            }
+            
+            if(cmd.hasOption("discover")) {
+                TLogger.getLogger().info("Setting discover to => true");
+                manager.setDiscover(true);
+            }
+            
+            if(cmd.hasOption("probe")) {
+                String value = TScriptCompiler.unescape(cmd.getOptionValue("probe"));
+                TLogger.getLogger().info("Setting discovery probe to => \"" + cmd.getOptionValue("probe") + "\"");
+                manager.setProbe(value);
+            }
+            
+            if(cmd.hasOption("deadline")) {
+                int value = Integer.parseInt(cmd.getOptionValue("deadline"));
+                if (value < 1) {
+                    TLogger.getLogger().warn("Deadline must be >= 1. Requesting (DEFAULT): 30");
+                    value = 30;
+                }
+                TLogger.getLogger().info("Setting discovery deadline to => " + value + "(s)");
+                manager.setDiscoverDeadline(value);
+            }
+            
             if(cmd.hasOption("b")) {
                 int value;
                 value = TStartupCommandParser.parseBaudRate(cmd.getOptionValue("b"));
@@ -77,6 +120,11 @@ public class TStartupCommandParser {
                 manager.setBaudRate(SerialPort.BAUDRATE_9600);
             }
             
+            if(cmd.hasOption("autobaud")) {
+                TLogger.getLogger().info("Setting autobaud to => true");
+                manager.setAutobaud(true);
+            }
+            
             if(cmd.hasOption("d")) {
                 int value = TStartupCommandParser.parseDataBits(cmd.getOptionValue("d"));
                 TLogger.getLogger().info("Setting data bits to => " + value);
@@ -113,11 +161,119 @@ public class TStartupCommandParser {
                 manager.setWriteDelay(500);
             }
             
+            if(cmd.hasOption("flow")) {
+                int value = TStartupCommandParser.parseFlowControl(cmd.getOptionValue("flow"));
+                TLogger.getLogger().info("Setting flow control to => " + cmd.getOptionValue("flow"));
+                manager.setFlowControl(value);
+            }
+            
+            if(cmd.hasOption("pace")) {
+                String value = TStartupCommandParser.parsePacing(cmd.getOptionValue("pace"));
+                TLogger.getLogger().info("Setting pacing to => " + value);
+                manager.setPacing(value);
+            }
+            
+            if(cmd.hasOption("window")) {
+                int value = Integer.parseInt(cmd.getOptionValue("window"));
+                if (value < 1) {
+                    TLogger.getLogger().warn("Window must be >= 1. Requesting (DEFAULT): 256");
+                    value = 256;
+                }
+                TLogger.getLogger().info("Setting pacing window to => " + value);
+                manager.setWindowSize(value);
+            }
+            
+            if(cmd.hasOption("prompt")) {
+                Pattern value = TStartupCommandParser.parsePrompt(cmd.getOptionValue("prompt"));
+                if (value == null) Main.exit(1);
+                TLogger.getLogger().info("Setting prompt to => \"" + value.pattern() + "\"");
+                manager.setPrompt(value);
+            }
+            
+            if(cmd.hasOption("charset")) {
+                String value = TStartupCommandParser.parseCharset(cmd.getOptionValue("charset"));
+                if (value == null) Main.exit(1);
+                TLogger.getLogger().info("Setting charset to => " + value);
+                manager.setCharset(value);
+            }
+            
+            if(cmd.hasOption("t")) {
+                int value = Integer.parseInt(cmd.getOptionValue("t"));
+                TLogger.getLogger().info("Setting line timeout to => " + value + "(ms)");
+                manager.setLineTimeout(value);
+            }
+            
+            if(cmd.hasOption("r")) {
+                int value = Integer.parseInt(cmd.getOptionValue("r"));
+                TLogger.getLogger().info("Setting response timeout to => " + value + "(ms)");
+                manager.setResponseTimeout(value);
+            }
+            
+            if(cmd.hasOption("idle")) {
+                int value = Integer.parseInt(cmd.getOptionValue("idle"));
+                if (value < 1) {
+                    TLogger.getLogger().warn("Idle window must be >= 1. Requesting (DEFAULT): 250");
+                    value = 250;
+                }
+                TLogger.getLogger().info("Setting idle window to => " + value + "(ms)");
+                manager.setIdleWindow(value);
+            }
+            
+            if(cmd.hasOption("chunk")) {
+                int value = Integer.parseInt(cmd.getOptionValue("chunk"));
+                if (value < 1) {
+                    TLogger.getLogger().warn("Chunk size must be >= 1. Requesting (DEFAULT): 4096");
+                    value = 4096;
+                }
+                TLogger.getLogger().info("Setting raw file chunk size to => " + value);
+                manager.setChunkSize(value);
+            }
+            
+            if(cmd.hasOption("chunkdelay")) {
+                int value = Integer.parseInt(cmd.getOptionValue("chunkdelay"));
+                TLogger.getLogger().info("Setting raw file chunk delay to => " + value + "(ms)");
+                manager.setChunkDelay(value);
+            }
+            
+            if(cmd.hasOption("transcript")) {
+                File f = new File(cmd.getOptionValue("transcript"));
+                TLogger.getLogger().info("Setting transcript to => \"" + f.getPath() + "\"");
+                manager.setTranscript(f);
+            }
+            
+            if(cmd.hasOption("journal")) {
+                File f = new File(cmd.getOptionValue("journal"));
+                TLogger.getLogger().info("Setting journal to => \"" + f.getPath() + "\"");
+                manager.setJournal(f);
+            }
+            
+            if(cmd.hasOption("resume")) {
+                if (!cmd.hasOption("journal")) {
+                    TLogger.getLogger().error("The \"-resume\" flag requires a journal set with \"-journal\".");
+                    Main.exit(1);
+                }
+                TLogger.getLogger().info("Setting resume to => true");
+                manager.setResume(true);
+            }
+            
+            if(cmd.hasOption("metrics")) {
+                File f = new File(cmd.getOptionValue("metrics"));
+                int interval = 10;
+                if (cmd.hasOption("metricsinterval")) interval = Integer.parseInt(cmd.getOptionValue("metricsinterval"));
+                TLogger.getLogger().info("Setting metrics to => \"" + f.getPath() + "\" every " + interval + "(s)");
+                TMetricsExporter.getExporter().start(f, interval);
+            }
+            
             if(cmd.hasOption("c")) {
                 String value = TStartupCommandParser.parseCOMPort(cmd.getOptionValue("c"));
                 if (value == null) Main.exit(1);
                 TLogger.getLogger().info("Setting com port to => " + value);
                 manager.setComPort(value);
+                if (cmd.getOptionValue("c").startsWith(TDeviceMap.PREFIX) && !cmd.hasOption("b")) {
+                    int rate = TDeviceMap.getDeviceMap().lookup(cmd.getOptionValue("c")).getBaudRate();
+                    TLogger.getLogger().info("Setting baud rate to (DISCOVERED) => " + rate);
+                    manager.setBaudRate(rate);
+                }
             }
             
             if(cmd.hasOption("f")) {
@@ -125,7 +281,74 @@ public class TStartupCommandParser {
                 if (value == null) Main.exit(1);
                 File f = new File(value);
                 TLogger.getLogger().info("Setting file to => \"" + f.getName() + "\"");
-                manager.setFile(f);
+                TScript script = TScriptCompiler.compile(f);
+                if (script == null) Main.exit(1);
+                manager.setScript(script);
+            }
+            
+            if(cmd.hasOption("ports")) {
+                if (!cmd.hasOption("f") && !cmd.hasOption("discover")) {
+                    TLogger.getLogger().error("The \"-ports\" flag requires a file set with \"-f\".");
+                    Main.exit(1);
+                }
+                // Discovery only probes the ports, it has no script to run
+                TScript script = cmd.hasOption("f") ? TScriptCompiler.compile(new File(cmd.getOptionValue("f"))) : null;
+                for (String port : cmd.getOptionValue("ports").split(",")) {
+                    String value = TStartupCommandParser.parseCOMPort(port.trim());
+                    if (value == null) Main.exit(1);
+                    TLogger.getLogger().info("Adding fleet port => " + value);
+                    manager.addFleetPort(value, script);
+                }
+            }
+            
+            if(cmd.hasOption("m")) {
+                if (!TStartupCommandParser.parseFleetMap(cmd.getOptionValue("m"), manager)) Main.exit(1);
+            }
+            
+            if(cmd.hasOption("graph")) {
+                if (parseFile(cmd.getOptionValue("graph")) == null) Main.exit(1);
+                TJobGraph graph = TJobGraph.load(new File(cmd.getOptionValue("graph")));
+                if (graph == null) Main.exit(1);
+                TLogger.getLogger().info("Setting job graph to => \"" + cmd.getOptionValue("graph") + "\" (" + graph.getJobs().size() + " jobs)");
+                manager.setJobGraph(graph);
+            }
+            
+            if(cmd.hasOption("inventory")) {
+                if (!cmd.hasOption("f")) {
+                    TLogger.getLogger().error("The \"-inventory\" flag requires a template set with \"-f\".");
+                    Main.exit(1);
+                }
+                String value = TStartupCommandParser.parseFile(cmd.getOptionValue("inventory"));
+                if (value == null) Main.exit(1);
+                TLogger.getLogger().info("Setting inventory to => \"" + value + "\"");
+                manager.setInventory(new File(value));
+            }
+            
+            if(cmd.hasOption("results")) {
+                File f = new File(cmd.getOptionValue("results"));
+                TLogger.getLogger().info("Setting results to => \"" + f.getPath() + "\"");
+                manager.setResults(f);
+            }
+            
+            if(cmd.hasOption("daemon")) {
+                int value = Integer.parseInt(cmd.getOptionValue("daemon"));
+                if (value < 1 || value > 65535) {
+                    TLogger.getLogger().error("The daemon port must be between 1 and 65535.");
+                    Main.exit(1);
+                }
+                TLogger.getLogger().info("Setting daemon port to => " + value);
+                manager.setDaemonPort(value);
+            }
+            
+            if(cmd.hasOption("j")) {
+                int value = TStartupCommandParser.parseConcurrency(cmd.getOptionValue("j"));
+                TLogger.getLogger().info("Setting fleet concurrency to => " + value);
+                manager.setFleetConcurrency(value);
+            } else if (manager.getInventory() != null) {
+                TLogger.getLogger().info("Setting inventory concurrency to (DEFAULT) => 16");
+                manager.setFleetConcurrency(16);
+            } else {
+                manager.setFleetConcurrency((manager.getJobGraph() != null) ? manager.getJobGraph().getJobs().size() : manager.getFleet().size());
             }
         } catch (ParseException ex) {
             TLogger.getLogger().error(ex);
@@ -134,27 +357,25 @@ public class TStartupCommandParser {
     }
 
     private static int parseBaudRate(String optionValue) throws NumberFormatException {
-        int baud;
-        try {
-            baud = Integer.parseInt(optionValue);
-            switch (optionValue) {
-                case "110":     return SerialPort.BAUDRATE_110;
-                case "300":     return SerialPort.BAUDRATE_300;
-                case "600":     return SerialPort.BAUDRATE_600;
-                case "1200":    return SerialPort.BAUDRATE_1200;
-                case "4800":    return SerialPort.BAUDRATE_4800;
-                case "9600":    return SerialPort.BAUDRATE_9600;
-                case "14400":   return SerialPort.BAUDRATE_14400;
-                case "19200":   return SerialPort.BAUDRATE_19200;
-                case "38400":   return SerialPort.BAUDRATE_38400;
-                case "57600":   return SerialPort.BAUDRATE_57600;
-                case "115200":  return SerialPort.BAUDRATE_115200;
-                default: 
-                    TLogger.getLogger().warn("Baud rate is invalid. Requesting (DEFAULT):");
-                    return SerialPort.BAUDRATE_9600;
-            }
-        } catch (NumberFormatException numberFormatException) {
-            throw new NumberFormatException();
+        // Any rate the adapter supports, not only the standard ones
+        int baud = Integer.parseInt(optionValue);
+        if (baud < 1) {
+            TLogger.getLogger().warn("Baud rate must be >= 1. Requesting (DEFAULT): 9600");
+            return SerialPort.BAUDRATE_9600;
+        }
+        return baud;
+    }
+
+    private static int parseLogLevel(String optionValue) {
+        switch (optionValue.toLowerCase()) {
+            case "log":     return TAsyncLogger.LOG;
+            case "info":    return TAsyncLogger.INFO;
+            case "warn":    return TAsyncLogger.WARN;
+            case "error":   return TAsyncLogger.ERROR;
+            case "fatal":   return TAsyncLogger.FATAL;
+            default: 
+                TLogger.getLogger().warn("Log level is invalid. Requesting (DEFAULT): log");
+                return TAsyncLogger.LOG;
         }
     }
 
@@ -203,7 +424,23 @@ public class TStartupCommandParser {
         return w;
     }
 
-    private static String parseCOMPort(String optionValue) {
+    static String parseCOMPort(String optionValue) {
+        if (optionValue.startsWith(TDeviceMap.PREFIX)) {
+            TDeviceMap.Device device = TDeviceMap.getDeviceMap().lookup(optionValue);
+            if (device != null) return device.getPort();
+            TLogger.getLogger().error("Unknown device '" + optionValue + "' in \"" + TDeviceMap.getDeviceMap().getFile().getPath() + "\". Run TFTC with the \"-discover\" flag first.");
+            return null;
+        }
+        if (optionValue.startsWith(TSocketTransport.PREFIX)) {
+            if (TSocketTransport.parsePort(optionValue) > 0) return optionValue;
+            TLogger.getLogger().error("Invalid socket address. Acceptible format is: 'tcp://host:port', with a port from 1 to 65535.");
+            return null;
+        }
+        if (optionValue.startsWith(TPtyTransport.PREFIX)
+                || optionValue.startsWith(TLoopbackTransport.PREFIX)
+                || optionValue.startsWith("/dev/")) {
+            return optionValue;
+        }
         optionValue = optionValue.toUpperCase();
         if (optionValue.contains("COM") && optionValue.length() >= 4) {
             try {
@@ -219,6 +456,92 @@ public class TStartupCommandParser {
         }
     }
 
+    private static int parseFlowControl(String optionValue) {
+        int mode = TTransport.parseFlowControl(optionValue);
+        if (mode < 0) {
+            TLogger.getLogger().warn("Flow control is invalid. Requesting (DEFAULT): none");
+            return TTransport.FLOW_NONE;
+        }
+        return mode;
+    }
+
+    private static String parsePacing(String optionValue) {
+        switch (optionValue.toLowerCase()) {
+            case TPortWriter.PACE_FIXED:    return TPortWriter.PACE_FIXED;
+            case TPortWriter.PACE_PROMPT:   return TPortWriter.PACE_PROMPT;
+            case TPortWriter.PACE_ECHO:     return TPortWriter.PACE_ECHO;
+            case TPortWriter.PACE_STREAM:   return TPortWriter.PACE_STREAM;
+            case TPortWriter.PACE_WINDOW:   return TPortWriter.PACE_WINDOW;
+            default: 
+                TLogger.getLogger().warn("Pacing is invalid. Requesting (DEFAULT): fixed");
+                return TPortWriter.PACE_FIXED;
+        }
+    }
+
+    static Pattern parsePrompt(String optionValue) {
+        try {
+            return Pattern.compile(optionValue);
+        } catch (PatternSyntaxException ex) {
+            TLogger.getLogger().error("Invalid prompt regex: " + ex.getDescription());
+            return null;
+        }
+    }
+
+    private static String parseCharset(String optionValue) {
+        try {
+            return TCodec.forName(optionValue).getName();
+        } catch (IllegalArgumentException ex) {
+            TLogger.getLogger().error(ex.getMessage());
+            return null;
+        }
+    }
+
+    private static int parseConcurrency(String optionValue) {
+        int j = Integer.parseInt(optionValue);
+        if (j < 1) {
+            TLogger.getLogger().warn("Concurrency must be >= 1. Requesting (DEFAULT): 1");
+            return 1;
+        }
+        return j;
+    }
+
+    private static boolean parseFleetMap(String optionValue, TPortManager manager) {
+        if (parseFile(optionValue) == null) return false;
+        // Each script is compiled once, however many ports run it
+        Map<String, TScript> scripts = new HashMap<>();
+        String line;
+        try (
+            InputStream fis = new FileInputStream(optionValue);
+            InputStreamReader isr = new InputStreamReader(fis, Charset.forName("UTF-8"));
+            BufferedReader br = new BufferedReader(isr);
+        ) {
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] pair = line.split("\\s+", 2);
+                if (pair.length < 2) {
+                    TLogger.getLogger().error("Fleet map line is missing a file: \"" + line + "\"");
+                    return false;
+                }
+                String port = parseCOMPort(pair[0]);
+                String file = parseFile(pair[1]);
+                if (port == null || file == null) return false;
+                TScript script = scripts.get(file);
+                if (script == null) {
+                    script = TScriptCompiler.compile(new File(file));
+                    if (script == null) return false;
+                    scripts.put(file, script);
+                }
+                TLogger.getLogger().info("Adding fleet port => " + port + " (" + file + ")");
+                manager.addFleetPort(port, script);
+            }
+        } catch (IOException ex) {
+            TLogger.getLogger().error("File IO Exception: " + ex);
+            return false;
+        }
+        return true;
+    }
+
     private static String parseFile(String optionValue) {
         File file = new File(optionValue);
         if (file.isFile() && file.canRead()) {
@@ -0,0 +1,119 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Base for transports backed by a pair of blocking streams. A daemon thread
+ * reads the input stream and hands each chunk to the listener.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public abstract class TStreamTransport implements TTransport {
+    
+    private final String name;
+    private volatile Listener listener;
+    private volatile boolean open = false;
+    private InputStream in;
+    private OutputStream out;
+    private Thread readThread;
+    
+    protected TStreamTransport(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Opens the underlying resource.
+     */
+    protected abstract void connect() throws IOException;
+    
+    protected abstract InputStream getInputStream() throws IOException;
+    
+    protected abstract OutputStream getOutputStream() throws IOException;
+    
+    /**
+     * Releases the underlying resource, unblocking the read thread.
+     */
+    protected abstract void disconnect() throws IOException;
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void open() throws IOException {
+        connect();
+        in = getInputStream();
+        out = getOutputStream();
+        open = true;
+        readThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, name + "-rx");
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+    
+    private void readLoop() {
+        byte[] buffer = new byte[4096];
+        try {
+            int count;
+            while (open && (count = in.read(buffer)) != -1) {
+                Listener l = listener;
+                if (count > 0 && l != null) l.dataReceived(buffer, 0, count);
+            }
+        } catch (IOException ex) {
+            if (open) TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, name, ": ", ex);
+        }
+        open = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        disconnect();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (!open) throw new IOException(name + " is not open.");
+        out.write(data, offset, length);
+        out.flush();
+    }
+    
+}
@@ -0,0 +1,102 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A line with "[name]" variable tags, split once into literal text and
+ * variable names so filling it in is a single pass with no regex work.
+ * Immutable and safe to share between sessions.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public final class TTemplate {
+    
+    public static final String NOVAR = "<NOVAR>";
+    
+    private static final Pattern VARIABLE = Pattern.compile("\\[(.*?)\\](?!\\s*\\])\\s*", Pattern.DOTALL);
+    
+    private final String source;
+    private final List<String> literals;
+    private final List<String> names;
+    
+    private TTemplate(String source, List<String> literals, List<String> names) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+    }
+    
+    public static TTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (source.contains("[") && source.contains("]")) {
+            Matcher m = VARIABLE.matcher(source);
+            int last = 0;
+            while (m.find()) {
+                literals.add(source.substring(last, m.start()));
+                names.add(m.group(1));
+                last = m.start() + m.group(1).length() + 2;
+            }
+            literals.add(source.substring(last));
+        } else {
+            literals.add(source);
+        }
+        return new TTemplate(source, Collections.unmodifiableList(literals), Collections.unmodifiableList(names));
+    }
+    
+    /**
+     * @return the variable names referenced, in order of appearance
+     */
+    public List<String> getNames() {
+        return names;
+    }
+    
+    public boolean isConstant() {
+        return names.isEmpty();
+    }
+    
+    /**
+     * Fills in the variables; unknown names become {@value #NOVAR}.
+     */
+    public String render(Map<String, String> variables) {
+        if (names.isEmpty()) return source;
+        StringBuilder sb = new StringBuilder(source.length() + 16 * names.size());
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(literals.get(i));
+            String value = variables.get(names.get(i));
+            sb.append(value == null ? NOVAR : value);
+        }
+        return sb.append(literals.get(names.size())).toString();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+    
+}
@@ -0,0 +1,108 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends a binary record of everything sent and received to a memory-mapped
+ * file. The file starts with a 16 byte header ("TFTC", version, 3 reserved
+ * bytes, start time in epoch milliseconds), followed by records of:
+ * direction (1 byte), nanoseconds since the start (8 bytes), length (4 bytes)
+ * and the raw bytes. A direction of 0 marks the end.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TTranscript {
+    
+    public static final byte END = 0;
+    public static final byte TX = 1;
+    public static final byte RX = 2;
+    public static final byte[] MAGIC = {'T', 'F', 'T', 'C'};
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 13;
+    
+    private static final int REGION = 1 << 20;
+    
+    private final FileChannel channel;
+    private final long startNanos = System.nanoTime();
+    private MappedByteBuffer map;
+    private long mapStart = 0;
+    
+    public TTranscript(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION);
+        map.put(MAGIC).put(VERSION).put(new byte[3]).putLong(System.currentTimeMillis());
+    }
+    
+    /**
+     * Appends a record; called from both the writer and the RX thread.
+     */
+    public synchronized void record(byte direction, byte[] data, int offset, int length) {
+        if (map == null) return;
+        long nanos = System.nanoTime() - startNanos;
+        try {
+            ensure(RECORD_HEADER_SIZE + length + 1);
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, "Transcript stopped: ", ex);
+            map = null;
+            return;
+        }
+        map.put(direction).putLong(nanos).putInt(length).put(data, offset, length);
+    }
+    
+    /**
+     * Remaps further along the file when the current region is full. One
+     * byte is always kept free for the end marker.
+     */
+    private void ensure(int size) throws IOException {
+        if (map.remaining() >= size) return;
+        mapStart += map.position();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, Math.max(REGION, size));
+    }
+    
+    public synchronized void close() {
+        if (map != null) {
+            map.put(END);
+            map.force();
+            try {
+                // Not possible on platforms that lock mapped files; the end marker covers it
+                channel.truncate(mapStart + map.position());
+            } catch (IOException ex) {
+                // keep the zero padding
+            }
+            map = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            TAsyncLogger.getLogger().log(TAsyncLogger.ERROR, ex);
+        }
+    }
+    
+}
@@ -0,0 +1,163 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Renders a session transcript as text, or reports the round-trip time of
+ * every command in it.
+ * <p>
+ * Usage: TTranscriptReader [-rtt] &lt;file&gt;
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TTranscriptReader {
+    
+    private final ByteBuffer buffer;
+    private final long startMillis;
+    
+    public TTranscriptReader(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, TTranscript.MAGIC) || buffer.get() != TTranscript.VERSION) {
+            throw new IOException(file.getName() + " is not a TFTC transcript.");
+        }
+        buffer.position(8);
+        startMillis = buffer.getLong();
+    }
+    
+    public static void main(String[] args) {
+        boolean rtt = args.length == 2 && "-rtt".equals(args[0]);
+        if (args.length != (rtt ? 2 : 1)) {
+            System.err.println("Usage: TTranscriptReader [-rtt] <file>");
+            System.exit(1);
+        }
+        try {
+            TTranscriptReader reader = new TTranscriptReader(new File(args[args.length - 1]));
+            if (rtt) {
+                reader.printRoundTrips(System.out);
+            } else {
+                reader.printText(System.out);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Prints one line per record with its offset from the start.
+     */
+    public void printText(PrintStream out) {
+        out.println("# Started " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(startMillis)));
+        buffer.position(TTranscript.HEADER_SIZE);
+        while (hasRecord()) {
+            byte direction = buffer.get();
+            long nanos = buffer.getLong();
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            out.printf("%12.3fms %s \"%s\"%n", nanos / 1e6, (direction == TTranscript.TX) ? "<-TX-" : "-RX->", escape(data));
+        }
+    }
+    
+    /**
+     * Prints, for every TX record, the time to the first byte received after
+     * it and to the last byte received before the next TX, then a summary.
+     */
+    public void printRoundTrips(PrintStream out) {
+        buffer.position(TTranscript.HEADER_SIZE);
+        long sent = -1;
+        long firstByte = -1;
+        long lastByte = -1;
+        String command = null;
+        int count = 0;
+        long total = 0;
+        long max = 0;
+        out.println("first(ms)     last(ms)  command");
+        while (true) {
+            boolean more = hasRecord();
+            byte direction = more ? buffer.get() : TTranscript.TX;
+            long nanos = more ? buffer.getLong() : 0;
+            byte[] data = more ? new byte[buffer.getInt()] : new byte[0];
+            if (more) buffer.get(data);
+            
+            if (direction == TTranscript.TX) {
+                if (command != null && firstByte >= 0) {
+                    out.printf("%9.3f %12.3f  \"%s\"%n", (firstByte - sent) / 1e6, (lastByte - sent) / 1e6, command);
+                    count++;
+                    total += lastByte - sent;
+                    max = Math.max(max, lastByte - sent);
+                } else if (command != null) {
+                    out.printf("%9s %12s  \"%s\"%n", "-", "-", command);
+                }
+                if (!more) break;
+                sent = nanos;
+                firstByte = -1;
+                command = escape(data);
+            } else {
+                if (firstByte < 0) firstByte = nanos;
+                lastByte = nanos;
+            }
+        }
+        if (count > 0) {
+            out.printf("%d commands answered, mean %.3fms, max %.3fms%n", count, total / 1e6 / count, max / 1e6);
+        }
+    }
+    
+    private boolean hasRecord() {
+        return buffer.remaining() >= TTranscript.RECORD_HEADER_SIZE && buffer.get(buffer.position()) != TTranscript.END;
+    }
+    
+    private static String escape(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length);
+        for (byte b : data) {
+            int c = b & 0xFF;
+            switch (c) {
+                case '\r': sb.append("\\r"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\t': sb.append("\\t"); break;
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                default:
+                    if (c < 0x20 || c >= 0x7F) {
+                        sb.append(String.format("\\x%02X", c));
+                    } else {
+                        sb.append((char) c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+    
+}
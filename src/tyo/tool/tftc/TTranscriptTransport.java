@@ -0,0 +1,103 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Wraps another transport and records both directions to a {@link TTranscript}.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TTranscriptTransport implements TTransport, TTransport.Listener {
+    
+    private final TTransport delegate;
+    private final File file;
+    private TTranscript transcript;
+    private volatile Listener listener;
+    
+    public TTranscriptTransport(TTransport delegate, File file) {
+        this.delegate = delegate;
+        this.file = file;
+        delegate.setListener(this);
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void open() throws IOException {
+        transcript = new TTranscript(file);
+        try {
+            delegate.open();
+        } catch (IOException ex) {
+            transcript.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            transcript.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public boolean setFlowControl(int mode) throws IOException {
+        return delegate.setFlowControl(mode);
+    }
+
+    @Override
+    public int getPendingOutput() throws IOException {
+        return delegate.getPendingOutput();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        transcript.record(TTranscript.TX, data, offset, length);
+        delegate.write(data, offset, length);
+    }
+
+    @Override
+    public void dataReceived(byte[] data, int offset, int length) {
+        transcript.record(TTranscript.RX, data, offset, length);
+        Listener l = listener;
+        if (l != null) l.dataReceived(data, offset, length);
+    }
+    
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.IOException;
+
+/**
+ * A byte pipe to a device console. Sessions only talk to the device through
+ * this interface, so the same script runs against a serial port, a network
+ * console server or a simulator.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public interface TTransport {
+    
+    int FLOW_NONE = 0;
+    int FLOW_RTSCTS = 1;
+    int FLOW_XONXOFF = 2;
+    
+    /**
+     * Receives the bytes read from the device. The array may be reused by the
+     * transport once the call returns.
+     */
+    interface Listener {
+        void dataReceived(byte[] data, int offset, int length);
+    }
+    
+    String getName();
+    
+    void open() throws IOException;
+    
+    void close() throws IOException;
+    
+    boolean isOpen();
+    
+    void setListener(Listener listener);
+    
+    void write(byte[] data, int offset, int length) throws IOException;
+    
+    default void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+    
+    /**
+     * Sets hardware or software flow control, after which writes block while
+     * the device cannot take more.
+     * 
+     * @param mode one of the FLOW_ constants
+     * @return false if this transport has no such control
+     */
+    default boolean setFlowControl(int mode) throws IOException {
+        return mode == FLOW_NONE;
+    }
+    
+    /**
+     * @return the number of written bytes still waiting to go out on the
+     * wire, or 0 if the transport cannot tell
+     */
+    default int getPendingOutput() throws IOException {
+        return 0;
+    }
+    
+    /**
+     * @param name "none", "rtscts" or "xonxoff"
+     * @return the FLOW_ constant, or -1 if the name is unknown
+     */
+    static int parseFlowControl(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "none":    return FLOW_NONE;
+            case "rtscts":  return FLOW_RTSCTS;
+            case "xonxoff": return FLOW_XONXOFF;
+            default:        return -1;
+        }
+    }
+    
+}
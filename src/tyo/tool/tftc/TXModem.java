@@ -0,0 +1,261 @@
+/*
+* Copyright (c) 2016 Jacob Tyo
+* 
+* Permission is hereby granted, free of charge, to any person obtaining a copy of 
+* this software and associated documentation files (the "Software"), to deal in 
+* the Software without restriction, including without limitation the rights to 
+* use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies 
+* of the Software, and to permit persons to whom the Software is furnished to do 
+* so, subject to the following conditions:
+* 
+* The above copyright notice and this permission notice shall be included in all 
+* copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS 
+* FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR 
+* COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER 
+* IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN 
+* CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package tyo.tool.tftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends a file with XMODEM (1K blocks with CRC-16, falling back to 128 byte
+ * blocks with a checksum if the receiver asks for it) or YMODEM batch. While
+ * the transfer runs it takes the place of the TPortReader as the listener of
+ * the transport.
+ *
+ * @author Jacob Tyo
+ * @author jtyo@redapt.com
+ */
+public class TXModem implements TTransport.Listener {
+    
+    private static final int SOH = 0x01;
+    private static final int STX = 0x02;
+    private static final int EOT = 0x04;
+    private static final int ACK = 0x06;
+    private static final int NAK = 0x15;
+    private static final int CAN = 0x18;
+    private static final int CRC = 'C';
+    private static final byte PAD = 0x1A;
+    
+    private static final int MAX_RETRIES = 10;
+    private static final long START_TIMEOUT = 60000;
+    private static final long ACK_TIMEOUT = 10000;
+    private static final int[] CRC_TABLE = new int[256];
+    
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+    
+    private final TTransport transport;
+    private final boolean batch;
+    private final byte[] packet = new byte[3 + 1024 + 2];
+    private final TRingBuffer rxBuffer = new TRingBuffer(1024);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition received = lock.newCondition();
+    private final byte[] one = new byte[1];
+    
+    private boolean crcMode = true;
+    private int retransmits = 0;
+    private int blocks = 0;
+    
+    /**
+     * @param transport the port to send over
+     * @param batch true for YMODEM, false for XMODEM
+     */
+    public TXModem(TTransport transport, boolean batch) {
+        this.transport = transport;
+        this.batch = batch;
+    }
+    
+    @Override
+    public void dataReceived(byte[] data, int offset, int length) {
+        lock.lock();
+        try {
+            rxBuffer.write(data, offset, length);
+            received.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the next byte from the receiver, or -1 if none arrived in time
+     */
+    private int read(long timeout) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            while (rxBuffer.size() == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return -1;
+                received.awaitNanos(remaining);
+            }
+            rxBuffer.copy(rxBuffer.head(), one, 0, 1);
+            rxBuffer.skip(1);
+            return one[0] & 0xFF;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfer interrupted.");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sends the file, logging the throughput and retransmit count.
+     */
+    public void send(File file) throws IOException {
+        String protocol = batch ? "YMODEM" : "XMODEM";
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, protocol, ": waiting for the receiver to start ", file.getName(), "...");
+        long start = System.nanoTime();
+        long size;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            awaitStart();
+            if (batch) {
+                sendHeader(file.getName(), size);
+                awaitStart();
+            }
+            sendData(channel);
+            sendEndOfTransmission();
+            if (batch) {
+                awaitStart();
+                sendHeader(null, 0);
+            }
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        TAsyncLogger.getLogger().log(TAsyncLogger.INFO, protocol, ": sent ", size, " bytes in ", blocks, " blocks, ", millis, "(ms), ", (size * 1000 / millis), " bytes/s, ", retransmits, " retransmits.");
+    }
+    
+    private void awaitStart() throws IOException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            int c = read(deadline - System.currentTimeMillis());
+            if (c == CRC) {
+                crcMode = true;
+                return;
+            }
+            if (c == NAK && !batch) {
+                crcMode = false;
+                return;
+            }
+            if (c == CAN) throw new IOException("Transfer cancelled by the receiver.");
+        }
+        throw new IOException("The receiver never started the transfer.");
+    }
+    
+    /**
+     * Block 0 of YMODEM: the file name and size, or all zeros to end the batch.
+     */
+    private void sendHeader(String name, long size) throws IOException {
+        byte[] data = new byte[128];
+        if (name != null) {
+            byte[] header = (name + "\0" + size).getBytes(Charset.forName("US-ASCII"));
+            System.arraycopy(header, 0, data, 0, Math.min(header.length, data.length - 1));
+        }
+        sendBlock(0, data, 128, (byte) 0);
+    }
+    
+    private void sendData(FileChannel channel) throws IOException {
+        int blockSize = crcMode ? 1024 : 128;
+        byte[] data = new byte[blockSize];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int number = 1;
+        while (true) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // fill the whole block
+            }
+            int count = buffer.position();
+            if (count == 0) return;
+            // A short final block goes out as a 128 byte block when it fits
+            int length = (count <= 128) ? 128 : blockSize;
+            sendBlock(number, data, length, PAD, count);
+            number++;
+            if (count < blockSize) return;
+        }
+    }
+    
+    private void sendBlock(int number, byte[] data, int length, byte pad) throws IOException {
+        sendBlock(number, data, length, pad, length);
+    }
+    
+    private void sendBlock(int number, byte[] data, int length, byte pad, int count) throws IOException {
+        packet[0] = (byte) ((length == 1024) ? STX : SOH);
+        packet[1] = (byte) number;
+        packet[2] = (byte) ~number;
+        System.arraycopy(data, 0, packet, 3, count);
+        Arrays.fill(packet, 3 + count, 3 + length, pad);
+        int size = 3 + length;
+        if (crcMode) {
+            int crc = crc16(packet, 3, length);
+            packet[size++] = (byte) (crc >> 8);
+            packet[size++] = (byte) crc;
+        } else {
+            int sum = 0;
+            for (int i = 3; i < 3 + length; i++) sum += packet[i];
+            packet[size++] = (byte) sum;
+        }
+        
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            if (attempt > 0) retransmits++;
+            transport.write(packet, 0, size);
+            int reply = awaitReply();
+            if (reply == ACK) {
+                blocks++;
+                return;
+            }
+            if (reply == CAN) throw new IOException("Transfer cancelled by the receiver.");
+        }
+        throw new IOException("Block " + number + " was not acknowledged after " + MAX_RETRIES + " attempts.");
+    }
+    
+    private void sendEndOfTransmission() throws IOException {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            transport.write(new byte[] {EOT});
+            if (awaitReply() == ACK) return;
+        }
+        throw new IOException("End of transmission was not acknowledged.");
+    }
+    
+    /**
+     * @return ACK, NAK, CAN, or -1 on timeout; anything else is line noise
+     */
+    private int awaitReply() throws IOException {
+        long deadline = System.currentTimeMillis() + ACK_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            int c = read(deadline - System.currentTimeMillis());
+            if (c == ACK || c == NAK || c == CAN) return c;
+        }
+        return -1;
+    }
+    
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+    
+}